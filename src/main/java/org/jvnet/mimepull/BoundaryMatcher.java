@@ -0,0 +1,382 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the "--" + boundary delimiter in a byte array. Replaces the Boyer-Moore search that MIMEParser copied from java.util.regex.Pattern.
+ *
+ * Long delimiters are searched with Boyer-Moore using a full 256 entry bad character table, so bytes above 0x7F do not alias ASCII bytes of the
+ * delimiter and binary bodies shift by the full delimiter length. Short delimiters shift too little for Boyer-Moore to pay off, and are found by
+ * scanning 8 bytes at a time for the leading "--" and comparing the rest of the delimiter at each candidate.
+ *
+ * Bodies that cannot contain '-', like base64, are searched with {@link #indexOfLine(byte[], int, int, boolean)}. When the delimiter is short or
+ * has many leading dashes, it only looks at every n-th byte for the n leading dashes of the delimiter, and only accepts a delimiter at the start of
+ * a line. Otherwise Boyer-Moore skips more bytes and is used instead.
+ *
+ * A message in a mapped file is searched in place with the ByteBuffer methods, with absolute gets, so its body bytes are not copied to a byte array
+ * just to be searched.
+ */
+final class BoundaryMatcher {
+
+    /** Delimiters shorter than this are found with the word scan. */
+    static final int MIN_BOYER_MOORE_LENGTH = 10;
+
+    /** Lowest bit of every byte in a long. */
+    private static final long LO_BITS = 0x0101010101010101L;
+    /** Highest bit of every byte in a long. */
+    private static final long HI_BITS = 0x8080808080808080L;
+    /** '-' in every byte of a long. */
+    private static final long DASHES = LO_BITS * '-';
+    /** Probing every n-th byte is faster than Boyer-Moore if the delimiter is shorter than n times this. */
+    private static final int PROBE_FACTOR = 6;
+
+    /** "--" + boundary. */
+    private final byte[] pattern;
+    /** length of pattern. */
+    private final int bl;
+    /** Bad Character Shift table, indexed by the unsigned byte value. */
+    private final int[] bcs = new int[256];
+    /** Good Suffix Shift table. */
+    private final int[] gss;
+    /** true to use Boyer-Moore, false for the word scan. */
+    private final boolean boyerMoore;
+    /** number of leading '-' of pattern. */
+    private final int dashes;
+    /** true if {@link #indexOfLine(byte[], int, int, boolean)} probes for the leading dashes. */
+    private final boolean probeLines;
+
+    /**
+     * Constructor.
+     *
+     * @param pattern "--" + boundary.
+     */
+    BoundaryMatcher(final byte[] pattern) {
+        this(pattern, pattern.length >= MIN_BOYER_MOORE_LENGTH);
+    }
+
+    /**
+     * Constructor that picks the search, used for benchmarks.
+     *
+     * @param pattern "--" + boundary.
+     * @param boyerMoore true to use Boyer-Moore, false for the word scan.
+     */
+    BoundaryMatcher(final byte[] pattern, final boolean boyerMoore) {
+        this.pattern = pattern.clone();
+        this.bl = pattern.length;
+        this.gss = new int[bl];
+        this.boyerMoore = boyerMoore || bl < 2 || pattern[0] != '-' || pattern[1] != '-';
+        int n = 0;
+        while (n < bl && pattern[n] == '-') {
+            n++;
+        }
+        this.dashes = n;
+        this.probeLines = n >= 2 && (!this.boyerMoore || n * PROBE_FACTOR > bl);
+        compile();
+    }
+
+    /**
+     * Pre calculates the bad character shift and the good suffix shift tables. The good suffix shift is computed as in java.util.regex.Pattern.
+     */
+    private void compile() {
+        int i, j;
+
+        for (i = 0; i < bl; i++) {
+            bcs[pattern[i] & 0xFF] = i + 1;
+        }
+
+        NEXT: for (i = bl; i > 0; i--) {
+            // j is the beginning index of suffix being considered
+            for (j = bl - 1; j >= i; j--) {
+                if (pattern[j] == pattern[j - i]) {
+                    // src[j..len] is a good suffix
+                    gss[j - 1] = i;
+                } else {
+                    continue NEXT;
+                }
+            }
+            while (j > 0) {
+                gss[--j] = i;
+            }
+        }
+        gss[bl - 1] = 1;
+    }
+
+    /**
+     * Finds the first delimiter that starts at or after off and ends at or before len.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    int indexOf(final byte[] buf, final int off, final int len) {
+        return boyerMoore ? boyerMoore(buf, off, len) : scan(buf, off, len);
+    }
+
+    /**
+     * Finds the first delimiter that starts at or after off and ends at or before len, in place.
+     *
+     * @param buf to be searched, the indexes are absolute and its position is not used.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    int indexOf(final ByteBuffer buf, final int off, final int len) {
+        return boyerMoore ? boyerMoore(buf, off, len) : scan(buf, off, len);
+    }
+
+    /**
+     * Boyer-Moore search.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    private int boyerMoore(final byte[] buf, final int off, final int len) {
+        final int last = len - bl;
+        int offset = off;
+
+        NEXT: while (offset <= last) {
+            for (int j = bl - 1; j >= 0; j--) {
+                final byte ch = buf[offset + j];
+                if (ch != pattern[j]) {
+                    offset += Math.max(j + 1 - bcs[ch & 0xFF], gss[j]);
+                    continue NEXT;
+                }
+            }
+            return offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Boyer-Moore search in place.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    private int boyerMoore(final ByteBuffer buf, final int off, final int len) {
+        final int last = len - bl;
+        int offset = off;
+
+        NEXT: while (offset <= last) {
+            for (int j = bl - 1; j >= 0; j--) {
+                final byte ch = buf.get(offset + j);
+                if (ch != pattern[j]) {
+                    offset += Math.max(j + 1 - bcs[ch & 0xFF], gss[j]);
+                    continue NEXT;
+                }
+            }
+            return offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Word at a time scan for the leading '-' of the delimiter. The '-' bytes of 8 bytes are found at once, and the rest of the delimiter is
+     * compared byte by byte at each of them.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    private int scan(final byte[] buf, final int off, final int len) {
+        final int last = len - bl;
+        if (off > last) {
+            return -1;
+        }
+        final ByteBuffer words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        int i = off;
+        // words are read up to last + 1, a candidate is never past last
+        while (i + Long.BYTES <= last + 1) {
+            final long x = words.getLong(i) ^ DASHES;
+            long found = (x - LO_BITS) & ~x & HI_BITS;
+            while (found != 0) {
+                final int pos = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                if (matchesAt(buf, pos)) {
+                    return pos;
+                }
+                found &= found - 1;
+            }
+            i += Long.BYTES;
+        }
+        for (; i <= last; i++) {
+            if (buf[i] == '-' && matchesAt(buf, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Word at a time scan in place, see {@link #scan(byte[], int, int)}.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    private int scan(final ByteBuffer buf, final int off, final int len) {
+        final int last = len - bl;
+        if (off > last) {
+            return -1;
+        }
+        final ByteBuffer words = buf.order() == ByteOrder.LITTLE_ENDIAN ? buf : buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = off;
+        while (i + Long.BYTES <= last + 1) {
+            final long x = words.getLong(i) ^ DASHES;
+            long found = (x - LO_BITS) & ~x & HI_BITS;
+            while (found != 0) {
+                final int pos = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                if (matchesAt(buf, pos)) {
+                    return pos;
+                }
+                found &= found - 1;
+            }
+            i += Long.BYTES;
+        }
+        for (; i <= last; i++) {
+            if (buf.get(i) == '-' && matchesAt(buf, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the delimiter in a body without '-' bytes. The delimiter may also be found in the middle of a line, if Boyer-Moore is faster for it.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @param bol true if index 0 of buf is at the beginning of a line.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    int indexOfLine(final byte[] buf, final int off, final int len, final boolean bol) {
+        return probeLines ? probeLines(buf, off, len, bol) : indexOf(buf, off, len);
+    }
+
+    /**
+     * Finds the first delimiter at the start of a line, for bodies without '-' bytes. Every delimiter starts with a run of dashes as long as the
+     * leading dashes of the pattern, so probing every dashes-th byte hits each of them. Only the bytes around a '-' are compared. Bodies with many
+     * '-' bytes are still searched correctly, just slower.
+     *
+     * @param buf to be searched.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @param bol true if index 0 of buf is at the beginning of a line.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    int probeLines(final byte[] buf, final int off, final int len, final boolean bol) {
+        if (dashes == 0) {
+            return indexOf(buf, off, len);
+        }
+        final int last = len - bl;
+        for (int i = off + dashes - 1; i <= last + dashes - 1; i += dashes) {
+            if (buf[i] != '-') {
+                continue;
+            }
+            final int end = Math.min(i, last);
+            for (int c = Math.max(off, i - dashes + 1); c <= end; c++) {
+                if ((c == 0 ? bol : buf[c - 1] == '\n' || buf[c - 1] == '\r') && matchesAt(buf, c)) {
+                    return c;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the length of the longest suffix of buf that may be the beginning of a delimiter that continues after len, together with the line break
+     * in front of it. The bytes before that suffix cannot start a delimiter, so they need not be searched again once more data is read.
+     *
+     * @param buf searched without a match.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return number of bytes at the end of buf to keep, at most pattern length + 1.
+     */
+    int partialMatch(final byte[] buf, final int off, final int len) {
+        for (int p = Math.max(off, len - bl - 1); p < len; p++) {
+            int q = p;
+            if (buf[q] == '\r') {
+                q++;
+            }
+            if (q < len && buf[q] == '\n') {
+                q++;
+            }
+            int j = 0;
+            while (q + j < len && j < bl && buf[q + j] == pattern[j]) {
+                j++;
+            }
+            if (q + j == len && j < bl && (q > p || j > 0)) {
+                return len - p;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the length of the longest suffix that may be the beginning of a delimiter, in place, see {@link #partialMatch(byte[], int, int)}.
+     *
+     * @param buf searched without a match, the indexes are absolute.
+     * @param off start index in buf.
+     * @param len end index in buf.
+     * @return number of bytes before len to keep, at most pattern length + 1.
+     */
+    int partialMatch(final ByteBuffer buf, final int off, final int len) {
+        for (int p = Math.max(off, len - bl - 1); p < len; p++) {
+            int q = p;
+            if (buf.get(q) == '\r') {
+                q++;
+            }
+            if (q < len && buf.get(q) == '\n') {
+                q++;
+            }
+            int j = 0;
+            while (q + j < len && j < bl && buf.get(q + j) == pattern[j]) {
+                j++;
+            }
+            if (q + j == len && j < bl && (q > p || j > 0)) {
+                return len - p;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares the delimiter at a position.
+     *
+     * @param buf to be searched.
+     * @param pos start of the candidate, at most len - bl.
+     * @return true if the delimiter starts at pos.
+     */
+    private boolean matchesAt(final byte[] buf, final int pos) {
+        for (int j = bl - 1; j > 0; j--) {
+            if (buf[pos + j] != pattern[j]) {
+                return false;
+            }
+        }
+        return buf[pos] == pattern[0];
+    }
+
+    /**
+     * Compares the delimiter at a position in place.
+     *
+     * @param buf to be searched.
+     * @param pos start of the candidate, at most len - bl.
+     * @return true if the delimiter starts at pos.
+     */
+    private boolean matchesAt(final ByteBuffer buf, final int pos) {
+        for (int j = bl - 1; j > 0; j--) {
+            if (buf.get(pos + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return buf.get(pos) == pattern[0];
+    }
+}
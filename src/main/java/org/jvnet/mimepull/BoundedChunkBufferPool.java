@@ -0,0 +1,128 @@
+package org.jvnet.mimepull;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ChunkBufferPool} of fixed size buffers that keeps at most maxBuffers idle buffers around. Requests larger than the buffer size are served
+ * with unpooled buffers of the requested size, which are dropped on release.
+ */
+public class BoundedChunkBufferPool implements ChunkBufferPool {
+
+    /** capacity of every pooled buffer. */
+    private final int bufferSize;
+    /** max number of idle buffers kept. */
+    private final int maxBuffers;
+    /** allocate direct buffers. */
+    private final boolean direct;
+    /** idle buffers. */
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    /** number of idle buffers, ConcurrentLinkedQueue.size() is not constant time. */
+    private final AtomicInteger numBuffers = new AtomicInteger();
+    /** number of buffers of bufferSize handed out and not released. */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * Constructor. Use the chunkSize of the MIMEConfigYM as bufferSize, since that is the size of almost every content chunk.
+     *
+     * @param bufferSize capacity of the pooled buffers.
+     * @param maxBuffers max number of idle buffers kept in the pool.
+     */
+    public BoundedChunkBufferPool(final int bufferSize, final int maxBuffers) {
+        this(bufferSize, maxBuffers, false);
+    }
+
+    /**
+     * Constructor for a pool of direct buffers, see {@link MIMEConfigYM#setOffHeap(boolean)}.
+     *
+     * @param bufferSize capacity of the pooled buffers.
+     * @param maxBuffers max number of idle buffers kept in the pool.
+     * @param direct true to allocate direct buffers.
+     */
+    public BoundedChunkBufferPool(final int bufferSize, final int maxBuffers, final boolean direct) {
+        if (bufferSize <= 0 || maxBuffers < 0) {
+            throw new IllegalArgumentException("bufferSize must be > 0 and maxBuffers >= 0");
+        }
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.direct = direct;
+    }
+
+    /**
+     * Gets a pooled buffer, or allocates one if the pool is empty or minCapacity is larger than the buffer size.
+     *
+     * @param minCapacity int.
+     * @return ByteBuffer.
+     */
+    @Override
+    public ByteBuffer acquire(final int minCapacity) {
+        if (minCapacity > bufferSize) {
+            return allocate(minCapacity);
+        }
+        outstanding.incrementAndGet();
+        final ByteBuffer buf = buffers.poll();
+        if (buf == null) {
+            return allocate(bufferSize);
+        }
+        numBuffers.decrementAndGet();
+        ((Buffer) buf).clear();
+        return buf;
+    }
+
+    /**
+     * Keeps the buffer if it has the pool's buffer size and the pool is not full.
+     *
+     * @param buf ByteBuffer.
+     */
+    @Override
+    public void release(final ByteBuffer buf) {
+        if (buf == null || buf.capacity() != bufferSize || buf.isReadOnly() || buf.isDirect() != direct) {
+            return;
+        }
+        outstanding.decrementAndGet();
+        if (numBuffers.incrementAndGet() > maxBuffers) {
+            numBuffers.decrementAndGet();
+            return;
+        }
+        buffers.offer(buf);
+    }
+
+    /**
+     * Allocates a heap or direct buffer.
+     *
+     * @param capacity int.
+     * @return ByteBuffer.
+     */
+    private ByteBuffer allocate(final int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Gets the capacity of the pooled buffers.
+     *
+     * @return int.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of idle buffers in the pool.
+     *
+     * @return int.
+     */
+    public int getIdleCount() {
+        return numBuffers.get();
+    }
+
+    /**
+     * Gets the number of buffers of the pool's buffer size that were acquired and not released yet.
+     *
+     * @return int.
+     */
+    public int getOutstandingCount() {
+        return outstanding.get();
+    }
+}
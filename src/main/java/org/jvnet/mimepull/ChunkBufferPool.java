@@ -0,0 +1,28 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of buffers the parser copies part content chunks into. Configured through {@link MIMEConfigYM#setChunkBufferPool(ChunkBufferPool)} and
+ * usually shared by all messages.
+ *
+ * A buffer handed out by {@link #acquire(int)} belongs to the part it was added to until the part is closed and every stream reading it is closed
+ * or read to the end. Only then is it given back with {@link #release(ByteBuffer)}. Implementations must be thread safe.
+ */
+public interface ChunkBufferPool {
+
+    /**
+     * Gets a cleared buffer with at least minCapacity bytes of room. The buffer must have position 0.
+     *
+     * @param minCapacity int.
+     * @return ByteBuffer.
+     */
+    ByteBuffer acquire(int minCapacity);
+
+    /**
+     * Gives a buffer back to the pool. The pool may keep or drop it, for example when it did not come from this pool or the pool is full.
+     *
+     * @param buf ByteBuffer.
+     */
+    void release(ByteBuffer buf);
+}
@@ -0,0 +1,36 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Customized from Chunk, only the Data types are changed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class ChunkPartial {
+    /** No change from base class. */
+    volatile ChunkPartial next;
+    /** No change from base class. */
+    volatile DataPartial data;
+
+    /**
+     * No change from base class.
+     *
+     * @param data DataPartial.
+     */
+    ChunkPartial(final DataPartial data) {
+        this.data = data;
+    }
+
+    /**
+     * No change from base class. Creates a new chunk and adds to linked list.
+     *
+     * @param dataHead of the linked list
+     * @param buf MIME part partial data
+     * @return created chunk
+     */
+    ChunkPartial createNext(final DataHeadPartial dataHead, final ByteBuffer buf) {
+        next = new ChunkPartial(data.createNext(dataHead, buf));
+        return next;
+    }
+}
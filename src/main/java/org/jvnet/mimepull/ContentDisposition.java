@@ -0,0 +1,96 @@
+package org.jvnet.mimepull;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A parsed Content-Disposition value: the disposition type, and its parameters such as name and filename. Parts parse their
+ * Content-Disposition once, see {@link MIMEPartPartial#getContentDisposition()}.
+ */
+public final class ContentDisposition {
+
+    /** The value as in the header. */
+    private final String value;
+    /** Lower case disposition type. */
+    private final String type;
+    /** Parameters by lower case name. */
+    private final Map<String, String> parameters;
+
+    /**
+     * Constructor.
+     *
+     * @param value String.
+     */
+    private ContentDisposition(final String value) {
+        this.value = value;
+        final int semi = value.indexOf(';');
+        this.type = (semi < 0 ? value : value.substring(0, semi)).trim().toLowerCase(Locale.ROOT);
+        this.parameters = HeaderParameters.parse(value, semi < 0 ? value.length() : semi);
+    }
+
+    /**
+     * Parses a Content-Disposition value. Malformed parameters are skipped.
+     *
+     * @param value String.
+     * @return ContentDisposition.
+     */
+    public static ContentDisposition parse(final String value) {
+        return new ContentDisposition(value);
+    }
+
+    /**
+     * Gets the disposition type, like "form-data" or "attachment".
+     *
+     * @return lower case String.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets a parameter.
+     *
+     * @param name compared without case.
+     * @return String, or null if there is no such parameter.
+     */
+    public String getParameter(final String name) {
+        return parameters.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets all parameters.
+     *
+     * @return unmodifiable Map of lower case names to values.
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Gets the name parameter, the field name of multipart/form-data.
+     *
+     * @return String, or null if there is none.
+     */
+    public String getName() {
+        return parameters.get("name");
+    }
+
+    /**
+     * Gets the filename parameter, decoded from filename* if there is one.
+     *
+     * @return String, or null if there is none.
+     */
+    public String getFilename() {
+        return parameters.get("filename");
+    }
+
+    /**
+     * Gets the value as in the header.
+     *
+     * @return String.
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,123 @@
+package org.jvnet.mimepull;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A parsed Content-Type value: the media type, and its parameters such as charset and boundary. Parts parse their Content-Type once, see
+ * {@link MIMEPartPartial#getParsedContentType()}.
+ */
+public final class ContentType {
+
+    /** The value as in the header. */
+    private final String value;
+    /** Lower case primary type. */
+    private final String primaryType;
+    /** Lower case sub type, empty if there is none. */
+    private final String subType;
+    /** Parameters by lower case name. */
+    private final Map<String, String> parameters;
+
+    /**
+     * Constructor.
+     *
+     * @param value String.
+     */
+    private ContentType(final String value) {
+        this.value = value;
+        final int semi = value.indexOf(';');
+        final String type = (semi < 0 ? value : value.substring(0, semi)).trim().toLowerCase(Locale.ROOT);
+        final int slash = type.indexOf('/');
+        this.primaryType = slash < 0 ? type : type.substring(0, slash).trim();
+        this.subType = slash < 0 ? "" : type.substring(slash + 1).trim();
+        this.parameters = HeaderParameters.parse(value, semi < 0 ? value.length() : semi);
+    }
+
+    /**
+     * Parses a Content-Type value. Malformed parameters are skipped.
+     *
+     * @param value String.
+     * @return ContentType.
+     */
+    public static ContentType parse(final String value) {
+        return new ContentType(value);
+    }
+
+    /**
+     * Gets the primary type, like "text" of "text/plain".
+     *
+     * @return lower case String.
+     */
+    public String getPrimaryType() {
+        return primaryType;
+    }
+
+    /**
+     * Gets the sub type, like "plain" of "text/plain".
+     *
+     * @return lower case String, empty if there is none.
+     */
+    public String getSubType() {
+        return subType;
+    }
+
+    /**
+     * Gets the media type without parameters.
+     *
+     * @return lower case String, like "text/plain".
+     */
+    public String getBaseType() {
+        return subType.isEmpty() ? primaryType : primaryType + "/" + subType;
+    }
+
+    /**
+     * Checks the media type, without case. "*" as sub type matches every sub type.
+     *
+     * @param baseType like "text/plain" or "text/*".
+     * @return boolean.
+     */
+    public boolean match(final String baseType) {
+        final int slash = baseType.indexOf('/');
+        final String primary = slash < 0 ? baseType : baseType.substring(0, slash);
+        final String sub = slash < 0 ? "" : baseType.substring(slash + 1);
+        return primaryType.equalsIgnoreCase(primary) && ("*".equals(sub) || subType.equalsIgnoreCase(sub));
+    }
+
+    /**
+     * Gets a parameter.
+     *
+     * @param name compared without case.
+     * @return String, or null if there is no such parameter.
+     */
+    public String getParameter(final String name) {
+        return parameters.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets all parameters.
+     *
+     * @return unmodifiable Map of lower case names to values.
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Gets the charset parameter.
+     *
+     * @return String, or null if there is none.
+     */
+    public String getCharset() {
+        return parameters.get("charset");
+    }
+
+    /**
+     * Gets the value as in the header.
+     *
+     * @return String.
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
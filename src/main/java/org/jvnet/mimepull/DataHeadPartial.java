@@ -0,0 +1,816 @@
+package org.jvnet.mimepull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Customized from DataHead, which is final and tied to MIMEPart. Chunks are kept as ByteBuffers, and when a {@link ChunkBufferPool} is configured
+ * the chunk buffers are given back to it once they are no longer used.
+ *
+ * The part holds one reference, and every stream returned by {@link #read()} or {@link #readOnce()} holds one until it is closed or read to the
+ * end. Pooled buffers are only given back when the last reference is gone, or right away when their content was written to a file and nobody is
+ * reading.
+ *
+ * Chunks smaller than a quarter of the chunk size are coalesced into one in-memory chunk, and its unused room is trimmed when parsing of the part
+ * is done, so that the memory held by a part stays close to its content size.
+ *
+ * Chunks kept in memory are charged to the {@link MemoryGovernor} of the config, if there is one, by the capacity of the buffers they keep, and
+ * the part is spilled to a file when the governor has no room for the next chunk. The bytes are given back when the part is spilled, when its
+ * chunks are read with readOnce(), and when it is closed.
+ *
+ * With a {@link SpillWriter}, chunks spilled to the file are written on a writer thread. Their buffers are read until they are written, and
+ * pooled buffers are only given back once all chunks of the part are written or failed, also when the part is closed before. The content of a
+ * part with a failed write is lost, reading it throws the error of the write.
+ *
+ * @author Jitendra Kotamraju
+ */
+final class DataHeadPartial {
+
+    /** Chunks smaller than chunkSize / COALESCE_DIVISOR are coalesced. */
+    static final int COALESCE_DIVISOR = 4;
+
+    /** No change from base class. Linked list to keep the part's content. */
+    volatile ChunkPartial head, tail;
+
+    /** No change from base class except it is the spill file of the message. If the part is stored in a file, non-null. */
+    SpillFile dataFile;
+
+    /** No change from base class. */
+    private final MIMEPartPartial part;
+    /** Config of the message. */
+    private final MIMEConfigYM config;
+    /** Pool the chunk buffers are given back to, can be null. */
+    private final ChunkBufferPool pool;
+    /** Pooled buffers still owned by this part. Guarded by this. */
+    private final List<ByteBuffer> borrowed = new ArrayList<>();
+    /** One for the part, plus one for every open read stream. Guarded by this. */
+    private int refCount = 1;
+    /** Budget the chunks kept in memory are charged to, can be null. */
+    private final MemoryGovernor governor;
+    /** Bytes charged to the governor. Guarded by this. */
+    private long charged;
+    /** true if the chunk being added is kept in memory. Only used by the parsing thread. */
+    boolean admitted;
+    /** Number of chunks queued for the spill writer and not written yet. Guarded by this. */
+    private int unwritten;
+    /** First error of a queued chunk that could not be written. Guarded by this. */
+    private MIMEParsingException writeError;
+    /** true once the part is parsed. Guarded by this. */
+    private boolean done;
+    /** true if the chunks of the part are compressed in the spill file. Only used by the parsing thread. */
+    boolean compress;
+    /** true while the part is counted as a user of the spill file. Guarded by this. */
+    private boolean spillUser;
+    /** true once the part is closed. Guarded by this. */
+    private boolean closed;
+
+    /** No change from base class. */
+    boolean readOnce;
+    /** No change from base class. */
+    volatile long inMemory;
+
+    /**
+     * Used only for debugging. This records where readOnce() is called.
+     */
+    private Throwable consumedAt;
+
+    /**
+     * Constructor.
+     *
+     * @param part MIMEPartPartial.
+     * @param config MIMEConfigYM.
+     */
+    DataHeadPartial(final MIMEPartPartial part, final MIMEConfigYM config) {
+        this.part = part;
+        this.config = config;
+        this.pool = config.getChunkBufferPool();
+        this.governor = config.getMemoryGovernor();
+    }
+
+    /**
+     * No change from base class except coalescing small chunks, keeping track of pooled buffers, and spilling the first chunk if the memory
+     * governor has no room for it. The chunks of a part that was closed before it was parsed are dropped.
+     *
+     * @param buf ByteBuffer.
+     */
+    void addBody(final ByteBuffer buf) {
+        synchronized (this) {
+            if (closed) {
+                if (pool != null) {
+                    pool.release(buf);
+                }
+                return;
+            }
+            inMemory += buf.limit();
+        }
+        final int growth = coalesceGrowth(buf);
+        admitted = admit(growth >= 0 ? growth : buf.capacity());
+        if (admitted && growth >= 0) {
+            coalesce(buf);
+            if (pool != null) {
+                borrow(buf, true);
+            }
+            return;
+        }
+        if (tail != null) {
+            trimTail();
+            tail = tail.createNext(this, buf);
+        } else if (admitted) {
+            head = tail = new ChunkPartial(new MemoryDataPartial(buf, config));
+        } else {
+            spill(buf);
+            head = tail = new ChunkPartial(new FileDataPartial(dataFile, buf, this));
+        }
+        if (pool != null) {
+            // a queued chunk is given back once all chunks are written
+            borrow(buf, tail.data instanceof FileDataPartial && config.getSpillWriter() == null);
+        }
+    }
+
+    /**
+     * Decides if a chunk is kept in memory: as in the base class until the content of the part reaches the memory threshold, and only while the
+     * memory governor has room for it. The memory the chunk keeps is charged to the governor if it is kept in memory. Nothing stays charged for a part that is closed.
+     *
+     * @param size memory the chunk keeps: the capacity of its buffer, or what coalescing it allocates.
+     * @return false if the part has to be spilled, or is already.
+     */
+    private boolean admit(final int size) {
+        if (dataFile != null || !config.isOnlyMemory() && tail != null && inMemory >= config.getMemoryThreshold()) {
+            return false;
+        }
+        if (governor != null) {
+            if (!governor.acquire(size, !config.isOnlyMemory())) {
+                return false;
+            }
+            final boolean charge;
+            synchronized (this) {
+                charge = !closed;
+                if (charge) {
+                    charged += size;
+                }
+            }
+            if (!charge) {
+                // closed since addBody() looked, close() gave back what was charged before
+                governor.release(size);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the content of the part to the spill file of the message, the next chunks are written to it as well. Mostly no change from the base
+     * class MemoryData, except there is no temp file per part, the chunks may be compressed, and it also gives back the memory of the chunks.
+     *
+     * @param next the chunk being added, which goes to the file as well.
+     */
+    void spill(final ByteBuffer next) {
+        dataFile = part.msg.getSpillFile();
+        synchronized (this) {
+            if (!closed) {
+                spillUser = true;
+                dataFile.addUser();
+            }
+        }
+        compress = compress(head != null ? head.data.read() : next);
+
+        // the chunks not converted yet keep their pooled buffers while the first ones are written
+        writing();
+        for (ChunkPartial c = head; c != null; c = c.next) {
+            c.data = new FileDataPartial(dataFile, c.data.read(), this);
+        }
+        synchronized (this) {
+            --unwritten;
+            spilled();
+        }
+        uncharge(Long.MAX_VALUE);
+    }
+
+    /**
+     * Decides if the part is compressed in the spill file.
+     *
+     * @param first the first chunk of the part.
+     * @return boolean.
+     */
+    private boolean compress(final ByteBuffer first) {
+        switch (config.getSpillCompression()) {
+        case CONTENT_TYPE:
+            return SpillCompression.isTextLike(part.getParsedContentType());
+        case PROBE:
+            return SpillCompression.isTextLike(part.getParsedContentType()) || dataFile.compressible(first);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Gives back bytes charged to the memory governor.
+     *
+     * @param bytes at most this many.
+     */
+    private void uncharge(final long bytes) {
+        if (governor == null) {
+            return;
+        }
+        final long n;
+        synchronized (this) {
+            n = Math.min(bytes, charged);
+            charged -= n;
+        }
+        governor.release(n);
+    }
+
+    /**
+     * Finds if a small chunk can be appended to the in-memory tail chunk, and how much memory that takes: none if the tail has room, else a
+     * coalescing chunk that replaces the tail if it is small itself.
+     *
+     * @param buf ByteBuffer.
+     * @return bytes allocated, -1 if buf has to get its own chunk.
+     */
+    private int coalesceGrowth(final ByteBuffer buf) {
+        final int small = config.getChunkSize() / COALESCE_DIVISOR;
+        final ChunkPartial last = tail;
+        if (last == null || buf.remaining() >= small || !(last.data instanceof MemoryDataPartial)) {
+            return -1;
+        }
+        final MemoryDataPartial data = (MemoryDataPartial) last.data;
+        if (data.hasRoom(buf.remaining())) {
+            return 0;
+        }
+        if (data.size() >= small) {
+            return -1;
+        }
+        return Math.max(0, config.getChunkSize() - data.capacity());
+    }
+
+    /**
+     * Appends a small chunk to the in-memory tail chunk, see {@link #coalesceGrowth(ByteBuffer)}. The tail is replaced by a coalescing chunk if
+     * it has no room. Readers see the same content at the same offsets, so they just pick up the new data.
+     *
+     * @param buf ByteBuffer.
+     */
+    private void coalesce(final ByteBuffer buf) {
+        final ChunkPartial last = tail;
+        final MemoryDataPartial data = (MemoryDataPartial) last.data;
+        if (!data.append(buf)) {
+            final MemoryDataPartial merged = MemoryDataPartial.coalescing(config.getChunkSize(), config);
+            merged.append(data.read());
+            merged.append(buf);
+            last.data = merged;
+        }
+    }
+
+    /**
+     * Keeps a pooled buffer until it can be given back. A buffer whose content was copied to the file or to a coalesced chunk can be given back
+     * right away if nobody is reading, and so can any buffer once the part is closed and nobody is reading.
+     *
+     * @param buf ByteBuffer.
+     * @param copied true if the content of buf is no longer read from buf.
+     */
+    private synchronized void borrow(final ByteBuffer buf, final boolean copied) {
+        if (refCount == 0 || copied && refCount == 1) {
+            pool.release(buf);
+        } else {
+            borrowed.add(buf);
+        }
+    }
+
+    /**
+     * Called when the chunks were written to the file. Gives back the pooled buffers if nobody is reading them, and no chunk is still queued for
+     * the spill writer.
+     */
+    synchronized void spilled() {
+        if (pool != null && refCount <= 1 && unwritten == 0) {
+            for (final ByteBuffer buf : borrowed) {
+                pool.release(buf);
+            }
+            borrowed.clear();
+        }
+    }
+
+    /**
+     * Called when a chunk is queued for the spill writer.
+     */
+    synchronized void writing() {
+        ++unwritten;
+    }
+
+    /**
+     * Called on a writer thread when a queued chunk is written or its write failed. Once all are done, the pooled buffers can be given back, and
+     * the file is forced if the fsync policy is PART and the part is parsed.
+     *
+     * @param data FileDataPartial.
+     * @param error the error of the write, null if it succeeded.
+     */
+    void written(final FileDataPartial data, final MIMEParsingException error) {
+        final boolean force;
+        synchronized (this) {
+            data.clearPending(error);
+            if (writeError == null) {
+                writeError = error;
+            }
+            --unwritten;
+            spilled();
+            force = done && unwritten == 0;
+        }
+        if (force) {
+            forcePart();
+        }
+    }
+
+    /**
+     * Forces the spill file to the disk at the end of a spilled part, if the fsync policy is PART.
+     */
+    private void forcePart() {
+        if (dataFile.getFsync() == SpillWriter.Fsync.PART) {
+            dataFile.force();
+        }
+    }
+
+    /**
+     * Throws the error of a queued chunk of the part that could not be written.
+     */
+    private synchronized void checkWritten() {
+        if (writeError != null) {
+            throw new MIMEParsingException("Content of the MIME Part could not be written to the spill file: " + part, writeError);
+        }
+    }
+
+    /**
+     * Adds a reference for a read stream.
+     */
+    private synchronized void retain() {
+        ++refCount;
+    }
+
+    /**
+     * Drops a reference. Gives back all pooled buffers when the last one is gone, or once the queued chunks are written.
+     */
+    private void release() {
+        List<ByteBuffer> free = null;
+        synchronized (this) {
+            if (--refCount == 0 && unwritten == 0 && !borrowed.isEmpty()) {
+                free = new ArrayList<>(borrowed);
+                borrowed.clear();
+            }
+        }
+        if (free != null) {
+            for (final ByteBuffer buf : free) {
+                pool.release(buf);
+            }
+        }
+    }
+
+    /**
+     * Trims the unused room of a coalesced tail chunk, and forces the spill file if the fsync policy is PART and all chunks are written.
+     */
+    void doneParsing() {
+        trimTail();
+        final boolean force;
+        synchronized (this) {
+            done = true;
+            if (dataFile != null) {
+                spilled();
+            }
+            force = dataFile != null && unwritten == 0;
+        }
+        if (force) {
+            forcePart();
+        }
+    }
+
+    /**
+     * Trims the unused room of a coalesced tail chunk, once nothing more is appended to it, and gives back the memory that frees.
+     */
+    private void trimTail() {
+        final ChunkPartial last = tail;
+        if (last != null && last.data instanceof MemoryDataPartial) {
+            final MemoryDataPartial data = (MemoryDataPartial) last.data;
+            final MemoryDataPartial trimmed = data.trimmed();
+            last.data = trimmed;
+            uncharge(data.capacity() - trimmed.capacity());
+        }
+    }
+
+    /**
+     * Gets the heap or direct memory held by the in-memory chunks of this part.
+     *
+     * @return long.
+     */
+    long getRetainedBytes() {
+        long retained = 0;
+        for (ChunkPartial c = head; c != null; c = c.next) {
+            final DataPartial data = c.data;
+            if (data instanceof MemoryDataPartial) {
+                retained += ((MemoryDataPartial) data).capacity();
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Mostly no change from base class. The spill file is shared by the parts of the message, so instead of renaming it the extents of the part
+     * are copied to f.
+     *
+     * @param f File.
+     */
+    void moveTo(final File f) {
+        if (dataFile != null) {
+            try (FileChannel target = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                transferTo(target);
+            } catch (IOException ioe) {
+                throw new MIMEParsingException(ioe);
+            }
+        } else {
+            try {
+                OutputStream os = new FileOutputStream(f);
+                try {
+                    InputStream in = readOnce();
+                    byte[] buf = new byte[8192];
+                    int len;
+                    while ((len = in.read(buf)) != -1) {
+                        os.write(buf, 0, len);
+                    }
+                    in.close();
+                } finally {
+                    os.close();
+                }
+            } catch (IOException ioe) {
+                throw new MIMEParsingException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Writes the content of the part to a channel, parsing the rest of the part first. Chunks in the spill file are copied with
+     * FileChannel.transferTo(), which the OS can do without copying them through the heap, and the chunks in memory in between are written
+     * with one gathering write. The content can still be read after this.
+     *
+     * @param target WritableByteChannel, in blocking mode.
+     * @return bytes written.
+     * @throws IOException if writing fails.
+     */
+    long transferTo(final WritableByteChannel target) throws IOException {
+        if (readOnce) {
+            throw new IllegalStateException("readOnce() is called before, transferTo() cannot be called later.");
+        }
+        while (!part.parsed) {
+            if (!part.msg.makeProgress() && !part.parsed) {
+                throw new IllegalStateException(noContent());
+            }
+        }
+        checkWritten();
+        retain();
+        try {
+            final List<ByteBuffer> inMemory = new ArrayList<>();
+            long written = 0;
+            for (ChunkPartial c = head; c != null; c = c.next) {
+                final DataPartial data = c.data;
+                if (data instanceof FileDataPartial && ((FileDataPartial) data).isOnDisk()) {
+                    written += write(inMemory, target);
+                    ((FileDataPartial) data).transferTo(target);
+                    written += data.size();
+                } else {
+                    inMemory.add(data.read());
+                }
+            }
+            return written + write(inMemory, target);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Writes chunks to a channel, with a gathering write if the channel supports it.
+     *
+     * @param chunks List of ByteBuffer, cleared.
+     * @param target WritableByteChannel.
+     * @return bytes written.
+     * @throws IOException if writing fails.
+     */
+    private static long write(final List<ByteBuffer> chunks, final WritableByteChannel target) throws IOException {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        long written = 0;
+        if (target instanceof GatheringByteChannel) {
+            final ByteBuffer[] srcs = chunks.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (final ByteBuffer src : srcs) {
+                remaining += src.remaining();
+            }
+            while (written < remaining) {
+                written += ((GatheringByteChannel) target).write(srcs);
+            }
+        } else {
+            for (final ByteBuffer src : chunks) {
+                while (src.hasRemaining()) {
+                    written += target.write(src);
+                }
+            }
+        }
+        chunks.clear();
+        return written;
+    }
+
+    /**
+     * No change from base class except dropping the part's reference, giving back the memory of the chunks and no longer counting as a user of
+     * the spill file. The extents in the spill file are given back when the message is closed.
+     */
+    void close() {
+        final boolean wasUser;
+        synchronized (this) {
+            closed = true;
+            wasUser = spillUser;
+            spillUser = false;
+        }
+        head = tail = null;
+        release();
+        uncharge(Long.MAX_VALUE);
+        if (wasUser) {
+            dataFile.removeUser();
+        }
+    }
+
+    /**
+     * No change from base class except the error message in push mode.
+     *
+     * Can get the attachment part's content multiple times. That means the full content needs to be there in memory or on the file system. Calling
+     * this method would trigger parsing for the part's data. So do not call this unless it is required(otherwise, just wrap MIMEPart into a object
+     * that returns InputStream for e.g DataHandler)
+     *
+     * @return data for the part's content
+     */
+    InputStream read() {
+        if (readOnce) {
+            throw new IllegalStateException("readOnce() is called before, read() cannot be called later.");
+        }
+
+        // Trigger parsing for the part
+        while (tail == null) {
+            if (!part.msg.makeProgress()) {
+                throw new IllegalStateException(noContent());
+            }
+        }
+
+        if (head == null) {
+            throw new IllegalStateException("Already read. Probably readOnce() is called before.");
+        }
+        checkWritten();
+        return new ReadMultiStream();
+    }
+
+    /**
+     * Gets the message for a part without content. In push mode the content may just not be pushed yet.
+     *
+     * @return String.
+     */
+    private String noContent() {
+        if (part.msg.isParsed()) {
+            return "No such MIME Part: " + part;
+        }
+        return "No content of the MIME Part yet, the message needs more input: " + part;
+    }
+
+    /**
+     * No change from base class.
+     *
+     * Used for an assertion. Returns true when readOnce() is not already called. or otherwise throw an exception.
+     *
+     * <p>
+     * Calling this method also marks the stream as 'consumed'
+     *
+     * @return true if readOnce() is not called before
+     */
+    private boolean unconsumed() {
+        if (consumedAt != null) {
+            AssertionError error = new AssertionError("readOnce() is already called before. See the nested exception from where it's called.");
+            error.initCause(consumedAt);
+            throw error;
+        }
+        consumedAt = new Exception().fillInStackTrace();
+        return true;
+    }
+
+    /**
+     * No change from base class except the error message in push mode.
+     *
+     * Can get the attachment part's content only once. The content will be lost after the method. Content data is not be stored on the file system or
+     * is not kept in the memory for the following case: - Attachement parts contents are accessed sequentially
+     *
+     * In general, take advantage of this when the data is used only once.
+     *
+     * @return data for the part's content
+     */
+    InputStream readOnce() {
+        assert unconsumed();
+        if (readOnce) {
+            throw new IllegalStateException("readOnce() is called before. It can only be called once.");
+        }
+        readOnce = true;
+        // Trigger parsing for the part
+        while (tail == null) {
+            if (!part.msg.makeProgress() && tail == null) {
+                throw new IllegalStateException(noContent());
+            }
+        }
+        checkWritten();
+        InputStream in = new ReadOnceStream();
+        head = null;
+        return in;
+    }
+
+    /**
+     * No change from base class except chunks are ByteBuffers and the stream holds a reference while it is open.
+     */
+    class ReadMultiStream extends InputStream {
+        /** No change from base class. */
+        ChunkPartial current;
+        /** Data of the current chunk. */
+        ByteBuffer buf;
+        /** No change from base class. */
+        boolean closed;
+        /** true once the reference is dropped. */
+        private boolean released;
+
+        /**
+         * No change from base class.
+         */
+        ReadMultiStream() {
+            retain();
+            this.current = head;
+            buf = current.data.read();
+        }
+
+        /**
+         * No change from base class.
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int sz) throws IOException {
+            if (!fetch()) {
+                return -1;
+            }
+
+            final int n = Math.min(sz, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        /**
+         * No change from base class.
+         */
+        @Override
+        public int read() throws IOException {
+            if (!fetch()) {
+                return -1;
+            }
+            return (buf.get() & 0xff);
+        }
+
+        /**
+         * No change from base class.
+         */
+        void adjustInMemoryUsage() {
+            // Nothing to do in this case.
+        }
+
+        /**
+         * Mostly no change from base class. Gets to the next chunk if we are done with the current one.
+         *
+         * @return true if any data available
+         * @throws IOException when i/o error
+         */
+        private boolean fetch() throws IOException {
+            if (closed) {
+                throw new IOException("Stream already closed");
+            }
+            if (current == null) {
+                return false;
+            }
+
+            while (!advance()) {
+                if (part.parsed) {
+                    releaseOnce();
+                    return false;
+                }
+                if (!part.msg.makeProgress() && current.next == null && !part.parsed) {
+                    throw new IOException("The part is not parsed yet and the message needs more input");
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Gets to the content that is already parsed, without parsing any further.
+         *
+         * @return true if buf has bytes to read.
+         */
+        private boolean advance() {
+            while (!buf.hasRemaining()) {
+                // a coalesced chunk may have grown, or been trimmed or spilled with the same content
+                final ByteBuffer data = current.data.read();
+                if (data.limit() > buf.position()) {
+                    ((Buffer) data).position(buf.position());
+                    this.buf = data;
+                    break;
+                }
+                if (current.next == null) {
+                    return false;
+                }
+                consumed(current);
+                current = current.next;
+                adjustInMemoryUsage();
+                this.buf = current.data.read();
+            }
+            return true;
+        }
+
+        /**
+         * Gets the number of bytes that can be read without parsing, which in push mode is without needing more input.
+         */
+        @Override
+        public int available() {
+            if (closed || current == null) {
+                return 0;
+            }
+            return advance() ? buf.remaining() : 0;
+        }
+
+        /**
+         * Called when the stream moves past a chunk.
+         *
+         * @param chunk ChunkPartial.
+         */
+        void consumed(final ChunkPartial chunk) {
+            // Nothing to do in this case.
+        }
+
+        /**
+         * Drops the reference of this stream.
+         */
+        void releaseOnce() {
+            if (!released) {
+                released = true;
+                release();
+            }
+        }
+
+        /**
+         * No change from base class except dropping the reference.
+         */
+        @Override
+        public void close() throws IOException {
+            super.close();
+            current = null;
+            closed = true;
+            releaseOnce();
+        }
+    }
+
+    /**
+     * No change from base class.
+     */
+    final class ReadOnceStream extends ReadMultiStream {
+
+        /**
+         * No change from base class.
+         */
+        @Override
+        void adjustInMemoryUsage() {
+            synchronized (DataHeadPartial.this) {
+                inMemory -= current.data.size(); // adjust current memory usage
+            }
+        }
+
+        /**
+         * Gives back the memory of a chunk that was read, nothing else refers to it.
+         */
+        @Override
+        void consumed(final ChunkPartial chunk) {
+            if (chunk.data instanceof MemoryDataPartial) {
+                uncharge(((MemoryDataPartial) chunk.data).capacity());
+            }
+        }
+
+        /**
+         * Gives back the memory of the chunks once the content was read.
+         */
+        @Override
+        void releaseOnce() {
+            super.releaseOnce();
+            uncharge(Long.MAX_VALUE);
+        }
+
+    }
+}
@@ -0,0 +1,45 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Customized from Data, which is tied to the final DataHead class. read() returns a ByteBuffer instead of the backing array, so that chunks do not
+ * have to start at offset 0 of a heap array.
+ *
+ * @author Kohsuke Kawaguchi
+ * @author Jitendra Kotamraju
+ */
+interface DataPartial {
+
+    /**
+     * No change from base class. Size of the chunk given by the parser.
+     *
+     * @return size of the chunk
+     */
+    int size();
+
+    /**
+     * Return part's partial data. The returned buffer is a new view with position 0 and limit {@link #size()}, the data itself must not be
+     * modified.
+     *
+     * @return ByteBuffer.
+     */
+    ByteBuffer read();
+
+    /**
+     * No change from base class except the file is the spill file of the message. Write this partial data to a file.
+     *
+     * @param file to which the data needs to be written
+     * @return file pointer before the write operation(at which the data is written from)
+     */
+    long writeTo(SpillFile file);
+
+    /**
+     * No change from base class. Factory method to create a Data. The implementation could be file based one or memory based one.
+     *
+     * @param dataHead start of the linked list of data objects
+     * @param buf contains partial content for a part
+     * @return DataPartial
+     */
+    DataPartial createNext(DataHeadPartial dataHead, ByteBuffer buf);
+}
@@ -0,0 +1,148 @@
+package org.jvnet.mimepull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Customized from FileData. Keeps the Part's partial content data in an extent of the {@link SpillFile} of the message.
+ *
+ * With a {@link SpillWriter}, the chunk is written on a writer thread and is pending until then: it keeps its buffer, and is read from it. A
+ * chunk whose write failed gives its buffer up like a written one, and reading it throws the error of the write.
+ *
+ * The chunk of a part chosen for {@link SpillCompression} is deflated before it is written, and inflated when it is read from the file.
+ *
+ * @author Kohsuke Kawaguchi
+ * @author Jitendra Kotamraju
+ */
+final class FileDataPartial implements DataPartial {
+    /** No change from base class except it is the spill file of the message. */
+    private final SpillFile file;
+    /** No change from base class. read position. */
+    private final long pointer;
+    /** No change from base class. */
+    private final int length;
+    /** Bytes in the file, less than length if the chunk is compressed. */
+    private final int stored;
+    /** The data while it is queued for the writer, null once it is written or the write failed. */
+    private volatile ByteBuffer pending;
+    /** The error of the write, set before pending is cleared. */
+    private MIMEParsingException error;
+
+    /**
+     * No change from base class except the buffer does not need to be a heap buffer starting at array offset 0, and it is written on a writer
+     * thread if there is one. It is compressed if the part is. buf must not be changed after this.
+     *
+     * @param file SpillFile.
+     * @param buf ByteBuffer.
+     * @param dataHead DataHeadPartial, told when a queued chunk is written.
+     */
+    FileDataPartial(final SpillFile file, final ByteBuffer buf, final DataHeadPartial dataHead) {
+        this.file = file;
+        this.length = buf.remaining();
+        final ByteBuffer data = dataHead.compress ? file.deflate(buf) : buf;
+        this.stored = data.remaining();
+        this.pointer = file.reserve(stored);
+        final SpillWriter writer = file.getWriter();
+        if (writer == null) {
+            file.write(data, pointer);
+            return;
+        }
+        pending = buf.slice();
+        dataHead.writing();
+        writer.submit(() -> writeOut(data, writer, dataHead));
+    }
+
+    /**
+     * Writes a queued chunk, on a writer thread.
+     *
+     * @param data the bytes to write, compressed or not.
+     * @param writer SpillWriter.
+     * @param dataHead DataHeadPartial.
+     */
+    private void writeOut(final ByteBuffer data, final SpillWriter writer, final DataHeadPartial dataHead) {
+        try {
+            file.write(data, pointer);
+        } catch (final MIMEParsingException e) {
+            file.failed(e);
+            writer.failed();
+            dataHead.written(this, e);
+            return;
+        }
+        writer.written();
+        dataHead.written(this, null);
+    }
+
+    /**
+     * Marks a queued chunk as written, it is read from the file from now on, or as failed. Called with the lock of the data head held.
+     *
+     * @param failure the error of the write, null if it succeeded.
+     */
+    void clearPending(final MIMEParsingException failure) {
+        error = failure;
+        pending = null;
+    }
+
+    /**
+     * No change from base class except it is read into a ByteBuffer and inflated if it is compressed, or is a view of the data of a pending
+     * chunk. Throws if the chunk could not be written.
+     */
+    @Override
+    public ByteBuffer read() {
+        final ByteBuffer data = pending;
+        if (data != null) {
+            return data.duplicate();
+        }
+        if (error != null) {
+            throw new MIMEParsingException("Spilled chunk at " + pointer + " could not be written", error);
+        }
+        if (stored < length) {
+            return file.inflate(file.read(pointer, stored), length);
+        }
+        return file.read(pointer, length);
+    }
+
+    /**
+     * Checks if the data is only in the file and not compressed, so it can be copied with {@link #transferTo(WritableByteChannel)}. Once true,
+     * it stays true.
+     *
+     * @return boolean.
+     */
+    boolean isOnDisk() {
+        return pending == null && error == null && stored == length;
+    }
+
+    /**
+     * Copies the data to a channel without reading it into the heap, see {@link #isOnDisk()}.
+     *
+     * @param target WritableByteChannel.
+     * @throws IOException if the copy fails.
+     */
+    void transferTo(final WritableByteChannel target) throws IOException {
+        file.transferTo(pointer, length, target);
+    }
+
+    /**
+     * No change from base class. This shouldn't be called.
+     */
+    @Override
+    public long writeTo(final SpillFile file) {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * No change from base class.
+     */
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * No change from base class. Always create FileData.
+     */
+    @Override
+    public DataPartial createNext(final DataHeadPartial dataHead, final ByteBuffer buf) {
+        return new FileDataPartial(file, buf, dataHead);
+    }
+}
@@ -0,0 +1,146 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Finds the end of the header block of a part and splits it into lines. Replaces the LineInputStream of the base class, which looked at every byte
+ * for CR and NL while building a String per line.
+ *
+ * The empty line that ends the block is found by scanning 8 bytes at a time for NL, as {@link BoundaryMatcher} scans for '-', and only the bytes
+ * after each NL are compared. A search that finds no end continues where it stopped once more bytes are in the buffer. The lines are then split
+ * in one pass over the block, into a table of offsets that is kept for the next part.
+ *
+ * A line ends with NL or CR-NL, so a CR-CR-NL sequence also ends a line, as in the base class.
+ */
+final class HeaderBlockScanner {
+
+    /** Lowest bit of every byte in a long. */
+    private static final long LO_BITS = 0x0101010101010101L;
+    /** Highest bit of every byte in a long. */
+    private static final long HI_BITS = 0x8080808080808080L;
+    /** NL in every byte of a long. */
+    private static final long NEWLINES = LO_BITS * '\n';
+    /** Initial number of lines of the offset table. */
+    private static final int LINES = 16;
+
+    /** Start and end offsets of the lines of the last block, reused for every block. */
+    private int[] lines = new int[2 * LINES];
+    /** No end of the block starts before this index. */
+    private int scanned;
+    /** Index after the NL of the last complete line seen, 0 if none. */
+    private int linesEnd;
+
+    /**
+     * Finds the end of the header block at the start of a buffer. Continues the last search, so the buffer may only have grown at its end since.
+     *
+     * @param buf byte array.
+     * @param len end index in buf.
+     * @return index after the empty line that ends the block, or -1 if it is not in buf yet.
+     */
+    int find(final byte[] buf, final int len) {
+        if (scanned == 0) {
+            if (len > 0 && buf[0] == '\n') {
+                return 1;
+            }
+            if (len > 1 && buf[0] == '\r' && buf[1] == '\n') {
+                return 2;
+            }
+            if (len > 0 && buf[0] == '\r' && len < 2) {
+                // may still be an empty line
+                return -1;
+            }
+        }
+        int i = scanned;
+        final ByteBuffer words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        while (i + Long.BYTES <= len) {
+            final long x = words.getLong(i) ^ NEWLINES;
+            long found = (x - LO_BITS) & ~x & HI_BITS;
+            while (found != 0) {
+                final int nl = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                // a byte above an NL may be a false match
+                if (buf[nl] == '\n') {
+                    final int end = endAt(buf, len, nl);
+                    if (end != 0) {
+                        return end;
+                    }
+                }
+                found &= found - 1;
+            }
+            i += Long.BYTES;
+        }
+        for (; i < len; i++) {
+            if (buf[i] == '\n') {
+                final int end = endAt(buf, len, i);
+                if (end != 0) {
+                    return end;
+                }
+            }
+        }
+        scanned = len;
+        return -1;
+    }
+
+    /**
+     * Checks if the line ending with an NL is followed by an empty line.
+     *
+     * @param buf byte array.
+     * @param len end index in buf.
+     * @param nl index of the NL.
+     * @return index after the empty line, -1 if buf ends before it can be told, 0 if there is none.
+     */
+    private int endAt(final byte[] buf, final int len, final int nl) {
+        linesEnd = nl + 1;
+        if (nl + 1 < len && buf[nl + 1] == '\n') {
+            return nl + 2;
+        }
+        if (nl + 2 < len && buf[nl + 1] == '\r' && buf[nl + 2] == '\n') {
+            return nl + 3;
+        }
+        if (nl + 1 >= len || nl + 2 >= len && buf[nl + 1] == '\r') {
+            // continue from this NL once there are more bytes
+            scanned = nl;
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Splits a header block into lines and starts a new search.
+     *
+     * @param buf byte array, the block starts at index 0.
+     * @param end index returned by {@link #find(byte[], int)}, or -1 if the input ended before the end of the block, the complete lines are
+     *            the headers then.
+     * @return IndexedHeaders, with a copy of the block.
+     */
+    IndexedHeaders split(final byte[] buf, final int end) {
+        // without the empty line, or the incomplete last line
+        final int blockLen = end == -1 ? linesEnd : end - (end > 1 && buf[end - 2] == '\r' ? 2 : 1);
+        int lineCount = 0;
+        int start = 0;
+        for (int i = 0; i < blockLen; i++) {
+            if (buf[i] == '\n') {
+                final int lineEnd = i > start && buf[i - 1] == '\r' ? i - 1 : i;
+                if (2 * lineCount == lines.length) {
+                    lines = Arrays.copyOf(lines, 2 * lines.length);
+                }
+                lines[2 * lineCount] = start;
+                lines[2 * lineCount + 1] = lineEnd;
+                lineCount++;
+                start = i + 1;
+            }
+        }
+        scanned = 0;
+        linesEnd = 0;
+        return new IndexedHeaders(Arrays.copyOf(buf, blockLen), lines, lineCount);
+    }
+
+    /**
+     * Starts a new search, for a buffer that was replaced.
+     */
+    void reset() {
+        scanned = 0;
+        linesEnd = 0;
+    }
+}
@@ -0,0 +1,126 @@
+package org.jvnet.mimepull;
+
+/**
+ * Table of the header names that parts commonly have. {@link IndexedHeaders} looks up the name of every header once, so lookups of these
+ * names compare table indexes instead of bytes, and the names of headers spelled as in the table are these interned Strings instead of new
+ * ones for every part.
+ */
+final class HeaderNames {
+
+    /** Content-Type. */
+    static final String CONTENT_TYPE = "Content-Type";
+    /** Content-Transfer-Encoding. */
+    static final String CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+    /** Content-ID. */
+    static final String CONTENT_ID = "Content-ID";
+    /** Content-Disposition. */
+    static final String CONTENT_DISPOSITION = "Content-Disposition";
+    /** Content-Description. */
+    static final String CONTENT_DESCRIPTION = "Content-Description";
+    /** Content-Length. */
+    static final String CONTENT_LENGTH = "Content-Length";
+    /** Content-Location. */
+    static final String CONTENT_LOCATION = "Content-Location";
+    /** Content-Language. */
+    static final String CONTENT_LANGUAGE = "Content-Language";
+    /** MIME-Version. */
+    static final String MIME_VERSION = "MIME-Version";
+
+    /** The canonical names, indexed by their id. */
+    private static final String[] NAMES = {CONTENT_TYPE, CONTENT_TRANSFER_ENCODING, CONTENT_ID, CONTENT_DISPOSITION, CONTENT_DESCRIPTION,
+        CONTENT_LENGTH, CONTENT_LOCATION, CONTENT_LANGUAGE, MIME_VERSION};
+
+    /**
+     * Constructor.
+     */
+    private HeaderNames() {
+        // Nothing to do
+    }
+
+    /**
+     * Gets the id of a name, without case.
+     *
+     * @param name String.
+     * @return id, or -1 if the name is not in the table.
+     */
+    static int id(final String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i] == name || NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the id of a name in ISO-8859-1 bytes, without case.
+     *
+     * @param b byte array.
+     * @param start index of the name.
+     * @param end end index of the name.
+     * @return id, or -1 if the name is not in the table.
+     */
+    static int id(final byte[] b, final int start, final int end) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (equalsIgnoreCase(b, start, end, NAMES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the interned name of an id.
+     *
+     * @param id int.
+     * @return String.
+     */
+    static String name(final int id) {
+        return NAMES[id];
+    }
+
+    /**
+     * Compares ISO-8859-1 bytes with a String, without case as String.equalsIgnoreCase() does.
+     *
+     * @param b byte array.
+     * @param start int.
+     * @param end int, excluded.
+     * @param s String.
+     * @return true if equal.
+     */
+    static boolean equalsIgnoreCase(final byte[] b, final int start, final int end, final String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            final char c1 = (char) (b[start + i] & 0xff);
+            final char c2 = s.charAt(i);
+            if (c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2)
+                    && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares ISO-8859-1 bytes with a String, with case.
+     *
+     * @param b byte array.
+     * @param start int.
+     * @param end int, excluded.
+     * @param s String.
+     * @return true if equal.
+     */
+    static boolean equals(final byte[] b, final int start, final int end, final String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if ((b[start + i] & 0xff) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
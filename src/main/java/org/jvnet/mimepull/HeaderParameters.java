@@ -0,0 +1,207 @@
+package org.jvnet.mimepull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parses the "; name=value" parameters of Content-Type and Content-Disposition values. Values may be tokens or quoted strings, folded lines are
+ * unfolded, and parameters are looked up without case.
+ *
+ * RFC 2231 parameters are decoded: name*=charset'language'value with %-escapes, and name*0, name*1* ... continuations. An extended parameter is
+ * preferred over the plain one of the same name, so filename* wins over filename as RFC 6266 asks. Malformed parameters are skipped instead of
+ * failing, parts are routed by these values.
+ */
+final class HeaderParameters {
+
+    /**
+     * Constructor.
+     */
+    private HeaderParameters() {
+        // Nothing to do
+    }
+
+    /**
+     * Parses the parameters of a header value.
+     *
+     * @param value header value.
+     * @param from index of the first ';'.
+     * @return unmodifiable Map of lower case names to values, in the order of the header.
+     */
+    static Map<String, String> parse(final String value, final int from) {
+        final Map<String, String> params = new LinkedHashMap<>();
+        // extended and continued parameters by name, and their sections by number
+        Map<String, TreeMap<Integer, String>> sections = null;
+        final int n = value.length();
+        int i = from;
+        while (i < n) {
+            final char c = value.charAt(i);
+            if (c == ';' || isSpace(c)) {
+                i++;
+                continue;
+            }
+            final int nameStart = i;
+            while (i < n && value.charAt(i) != '=' && value.charAt(i) != ';') {
+                i++;
+            }
+            final String name = value.substring(nameStart, i).trim().toLowerCase(Locale.ROOT);
+            if (i == n || value.charAt(i) == ';') {
+                // no value
+                continue;
+            }
+            i++;
+            while (i < n && isSpace(value.charAt(i))) {
+                i++;
+            }
+            final String paramValue;
+            if (i < n && value.charAt(i) == '"') {
+                final StringBuilder sb = new StringBuilder();
+                i++;
+                while (i < n && value.charAt(i) != '"') {
+                    char ch = value.charAt(i);
+                    if (ch == '\\' && i + 1 < n) {
+                        ch = value.charAt(++i);
+                    }
+                    if (ch != '\r' && ch != '\n') {
+                        sb.append(ch);
+                    }
+                    i++;
+                }
+                while (i < n && value.charAt(i) != ';') {
+                    i++;
+                }
+                paramValue = sb.toString();
+            } else {
+                final int valueStart = i;
+                while (i < n && value.charAt(i) != ';') {
+                    i++;
+                }
+                paramValue = value.substring(valueStart, i).trim();
+            }
+            final int star = name.indexOf('*');
+            if (star <= 0) {
+                if (star < 0 && !name.isEmpty()) {
+                    params.put(name, paramValue);
+                }
+                continue;
+            }
+            if (sections == null) {
+                sections = new LinkedHashMap<>();
+            }
+            final Integer section = section(name, star);
+            if (section != null) {
+                final TreeMap<Integer, String> parts = sections.computeIfAbsent(name.substring(0, star), k -> new TreeMap<>());
+                // encoded sections keep a trailing '*' to be decoded later
+                parts.put(section, name.endsWith("*") ? "*" + paramValue : paramValue);
+            }
+        }
+        if (sections != null) {
+            for (final Map.Entry<String, TreeMap<Integer, String>> entry : sections.entrySet()) {
+                final String decoded = join(entry.getValue());
+                if (decoded != null) {
+                    params.put(entry.getKey(), decoded);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * Gets the section number of an RFC 2231 parameter name.
+     *
+     * @param name "name*", "name*N" or "name*N*".
+     * @param star index of the first '*'.
+     * @return section number, -1 for "name*", or null if the name is malformed.
+     */
+    private static Integer section(final String name, final int star) {
+        if (star == name.length() - 1) {
+            return -1;
+        }
+        final int end = name.endsWith("*") ? name.length() - 1 : name.length();
+        try {
+            return Integer.valueOf(name.substring(star + 1, end));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Joins and decodes the sections of an RFC 2231 parameter.
+     *
+     * @param parts values by section number, encoded values start with '*'.
+     * @return String, or null if the sections do not start at 0 or -1.
+     */
+    private static String join(final TreeMap<Integer, String> parts) {
+        if (parts.firstKey() > 0) {
+            return null;
+        }
+        Charset charset = StandardCharsets.ISO_8859_1;
+        final StringBuilder sb = new StringBuilder();
+        boolean first = true;
+        for (final String part : parts.values()) {
+            if (!part.startsWith("*")) {
+                sb.append(part);
+                first = false;
+                continue;
+            }
+            String encoded = part.substring(1);
+            if (first) {
+                // charset'language'
+                final int q1 = encoded.indexOf('\'');
+                final int q2 = q1 < 0 ? -1 : encoded.indexOf('\'', q1 + 1);
+                if (q2 > 0) {
+                    try {
+                        charset = q1 == 0 ? charset : Charset.forName(encoded.substring(0, q1));
+                    } catch (final IllegalArgumentException e) {
+                        // unknown charset, keep ISO-8859-1
+                    }
+                    encoded = encoded.substring(q2 + 1);
+                }
+            }
+            sb.append(percentDecode(encoded, charset));
+            first = false;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes %-escapes.
+     *
+     * @param s String.
+     * @param charset of the escaped bytes.
+     * @return String.
+     */
+    private static String percentDecode(final String s, final Charset charset) {
+        if (s.indexOf('%') < 0) {
+            return s;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            final int hi = c == '%' && i + 2 < s.length() ? Character.digit(s.charAt(i + 1), 16) : -1;
+            final int lo = hi < 0 ? -1 : Character.digit(s.charAt(i + 2), 16);
+            if (lo >= 0) {
+                bytes.write(hi << 4 | lo);
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        return new String(bytes.toByteArray(), charset);
+    }
+
+    /**
+     * Checks for whitespace, CR and NL of folded lines included.
+     *
+     * @param c char.
+     * @return boolean.
+     */
+    private static boolean isSpace(final char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+}
@@ -0,0 +1,283 @@
+package org.jvnet.mimepull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Headers of a part, kept as the bytes of the header block and a table of offsets into it. Parsing only finds the lines and the ':' of each
+ * header, names and values are made into Strings when they are looked up, and only for the headers that match. Lookups compare the bytes of the
+ * names without case, so most headers of a part are never decoded. Names in {@link HeaderNames} are looked up once, when the headers are made,
+ * and then compared by their id.
+ *
+ * Folded headers and header lines without ':' are handled as in InternetHeaders.
+ */
+final class IndexedHeaders {
+
+    /** Number of offsets per header in the table. */
+    private static final int SLOT = 2;
+    /** Offset of the first byte of a header in its slot. */
+    private static final int START = 0;
+    /** Offset of the ':' of a header in its slot, -1 if there is none. */
+    private static final int COLON = 1;
+
+    /** The header block, without the empty line that ends it. A header ends where the next one starts, or at the end of the block. */
+    private final byte[] block;
+    /** SLOT offsets into block for every header. */
+    private final int[] offsets;
+    /** Id of the name of every header in {@link HeaderNames}, -1 if it is not in the table. */
+    private final byte[] names;
+
+    /**
+     * Constructor.
+     *
+     * @param block the header block, not copied. It ends with the line terminator of the last line.
+     * @param lines start and end offsets of every line in block, line terminators excluded.
+     * @param lineCount number of lines.
+     */
+    IndexedHeaders(final byte[] block, final int[] lines, final int lineCount) {
+        this.block = block;
+        final int[] table = new int[lineCount * SLOT];
+        int n = 0;
+        for (int i = 0; i < lineCount; i++) {
+            final int start = lines[2 * i];
+            final int end = lines[2 * i + 1];
+            if (n > 0 && (block[start] == ' ' || block[start] == '\t')) {
+                // continuation of the previous header
+                if (table[(n - 1) * SLOT + COLON] < 0) {
+                    table[(n - 1) * SLOT + COLON] = indexOf(block, (byte) ':', start, end);
+                }
+                continue;
+            }
+            table[n * SLOT + START] = start;
+            table[n * SLOT + COLON] = indexOf(block, (byte) ':', start, end);
+            n++;
+        }
+        this.offsets = n == lineCount ? table : Arrays.copyOf(table, n * SLOT);
+        this.names = new byte[n];
+        for (int h = 0; h < n; h++) {
+            final int start = nameStart(h);
+            names[h] = (byte) HeaderNames.id(block, start, nameEnd(h, start));
+        }
+    }
+
+    /**
+     * Makes headers from raw header lines, folded headers have their lines joined with "\r\n".
+     *
+     * @param headerLines List of String.
+     * @return IndexedHeaders.
+     */
+    static IndexedHeaders of(final List<String> headerLines) {
+        final StringBuilder sb = new StringBuilder();
+        final List<int[]> ranges = new ArrayList<>();
+        for (final String line : headerLines) {
+            for (final String part : line.split("\r\n")) {
+                if (!part.isEmpty()) {
+                    ranges.add(new int[] {sb.length(), sb.length() + part.length()});
+                    sb.append(part).append("\r\n");
+                }
+            }
+        }
+        final int[] lines = new int[2 * ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            lines[2 * i] = ranges.get(i)[0];
+            lines[2 * i + 1] = ranges.get(i)[1];
+        }
+        return new IndexedHeaders(sb.toString().getBytes(StandardCharsets.ISO_8859_1), lines, ranges.size());
+    }
+
+    /**
+     * Return all the values for the specified header, as InternetHeaders does.
+     *
+     * @param name header name, compared without case.
+     * @return list of header values, or null if none
+     */
+    List<String> getHeader(final String name) {
+        final int id = HeaderNames.id(name);
+        List<String> values = null;
+        for (int h = 0; h < names.length; h++) {
+            if (id >= 0 ? names[h] == id : names[h] < 0 && nameEquals(h, name)) {
+                if (values == null) {
+                    values = new ArrayList<>(1);
+                }
+                values.add(value(h, name));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Return all the headers. The Header objects are made for every call and not kept, so the headers of a part only take the block and the
+     * offset table for as long as the part is kept. Their names and values are decoded when they are asked for.
+     *
+     * @return list of Header objects
+     */
+    List<? extends Header> getAllHeaders() {
+        final List<IndexedHeader> headers = new ArrayList<>(names.length);
+        for (int h = 0; h < names.length; h++) {
+            headers.add(new IndexedHeader(h));
+        }
+        return headers;
+    }
+
+    /**
+     * Gets the raw header lines, folded headers have their lines joined with "\r\n".
+     *
+     * @return List of String.
+     */
+    List<String> getLines() {
+        final List<String> lines = new ArrayList<>(names.length);
+        for (int h = 0; h < names.length; h++) {
+            lines.add(line(h));
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the raw line of a header.
+     *
+     * @param h index of the header.
+     * @return String.
+     */
+    private String line(final int h) {
+        final int start = offsets[h * SLOT + START];
+        return new String(block, start, end(h) - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the end of a header, continuation lines included and the line terminator of its last line excluded.
+     *
+     * @param h index of the header.
+     * @return int.
+     */
+    private int end(final int h) {
+        final int next = h + 1 < names.length ? offsets[(h + 1) * SLOT + START] : block.length;
+        // NL or CR-NL, the CR of CR-CR-NL stays in the line
+        return next > 1 && block[next - 2] == '\r' ? next - 2 : next - 1;
+    }
+
+    /**
+     * Compares the trimmed name of a header with a name, without case and without decoding the header.
+     *
+     * @param h index of the header.
+     * @param name String.
+     * @return true if they are equal.
+     */
+    private boolean nameEquals(final int h, final String name) {
+        final int start = nameStart(h);
+        return HeaderNames.equalsIgnoreCase(block, start, nameEnd(h, start), name);
+    }
+
+    /**
+     * Gets the start of the name of a header, without the leading whitespace that String.trim() of Hdr removes.
+     *
+     * @param h index of the header.
+     * @return int.
+     */
+    private int nameStart(final int h) {
+        final int colon = offsets[h * SLOT + COLON];
+        final int end = colon < 0 ? end(h) : colon;
+        int start = offsets[h * SLOT + START];
+        while (start < end && (block[start] & 0xff) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Gets the end of the name of a header, without the trailing whitespace that String.trim() of Hdr removes.
+     *
+     * @param h index of the header.
+     * @param start start of the name.
+     * @return int.
+     */
+    private int nameEnd(final int h, final int start) {
+        final int colon = offsets[h * SLOT + COLON];
+        int end = colon < 0 ? end(h) : colon;
+        while (end > start && (block[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Gets the value of a header as Hdr.getValue() does: the whitespace after the ':' is skipped, the whole line is the value if there is no ':'.
+     *
+     * @param h index of the header.
+     * @param name name of the header.
+     * @return String.
+     */
+    private String value(final int h, final String name) {
+        final int colon = offsets[h * SLOT + COLON];
+        if (colon < 0) {
+            return line(h);
+        }
+        final int end = end(h);
+        // Content-Description keeps the folded whitespace, rf. RFC2822 section 3.2.3
+        final boolean keepSpace = "Content-Description".equalsIgnoreCase(name);
+        int j = colon + 1;
+        while (j < end && (block[j] == '\t' || block[j] == '\r' || block[j] == '\n' || block[j] == ' ' && !keepSpace)) {
+            j++;
+        }
+        return new String(block, j, end - j, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the trimmed name of a header, the String of {@link HeaderNames} if it is spelled the same.
+     *
+     * @param h index of the header.
+     * @return String.
+     */
+    private String name(final int h) {
+        final int start = nameStart(h);
+        final String name = new String(block, start, nameEnd(h, start) - start, StandardCharsets.ISO_8859_1);
+        return names[h] >= 0 && name.equals(HeaderNames.name(names[h])) ? HeaderNames.name(names[h]) : name;
+    }
+
+    /**
+     * Finds a byte.
+     *
+     * @param b byte array.
+     * @param v byte to find.
+     * @param from int.
+     * @param to int, excluded.
+     * @return index of v, or -1.
+     */
+    private static int indexOf(final byte[] b, final byte v, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One header of the block, with the name and value Hdr of InternetHeaders would give.
+     */
+    private final class IndexedHeader implements Header {
+
+        /** Index of the header. */
+        private final int h;
+
+        /**
+         * Constructor.
+         *
+         * @param h index of the header.
+         */
+        private IndexedHeader(final int h) {
+            this.h = h;
+        }
+
+        @Override
+        public String getName() {
+            return name(h);
+        }
+
+        @Override
+        public String getValue() {
+            return value(h, name(h));
+        }
+    }
+}
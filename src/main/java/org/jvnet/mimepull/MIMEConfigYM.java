@@ -41,6 +41,7 @@
 package org.jvnet.mimepull;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 /**
  * Configuration for MIME message parsing and storing.
@@ -59,6 +60,8 @@ public class MIMEConfigYM extends MIMEConfig {
     private static final String DEFAULT_FILE_PREFIX = "MIME";
     /** DEFAULT_MAX_MIME_SIZE for max size. */
     private static final int DEFAULT_MAX_MIME_SIZE = 45 * 1024 * 1024;
+    /** DEFAULT_MAX_HEADER_BLOCK_SIZE for the headers of a part. */
+    private static final int DEFAULT_MAX_HEADER_BLOCK_SIZE = 256 * 1024;
 
     // Parses the entire message eagerly
     /** No change from base class. */
@@ -85,6 +88,39 @@ public class MIMEConfigYM extends MIMEConfig {
 
     int maxMIMESize;
 
+    /** Limit of the bytes buffered while looking for the end of the headers of a part. */
+    int maxHeaderBlockSize = DEFAULT_MAX_HEADER_BLOCK_SIZE;
+
+    /** Reuse a single parse buffer per parser instead of allocating one per chunk. */
+    boolean slidingWindowBuffer;
+
+    /** Pool for content chunk buffers, null if chunks are not pooled. */
+    ChunkBufferPool chunkBufferPool;
+
+    /** Keep in-memory part content in direct ByteBuffers. */
+    boolean offHeap;
+
+    /** Emit content as soon as it is read, instead of once the parse buffer is full. */
+    boolean lowLatency;
+
+    /** Runs the read ahead of the InputStream, null to read on the parsing thread. */
+    Executor readAheadExecutor;
+
+    /** Budget for the part content kept in memory, shared with other configs, null for none. */
+    MemoryGovernor memoryGovernor;
+
+    /** Writes spilled chunks in the background, null to write them on the parsing thread. */
+    SpillWriter spillWriter;
+
+    /** When spill files are forced to the disk. */
+    SpillWriter.Fsync spillFsync = SpillWriter.Fsync.NONE;
+
+    /** Directories spill files are spread over, null to use tempDir. */
+    SpillDirectories spillDirectories;
+
+    /** Which spilled parts are compressed. */
+    SpillCompression spillCompression = SpillCompression.NONE;
+
     /**
      * Private Constructor. Added only enablePartial, and no other change from base class.
      *
@@ -238,11 +274,18 @@ public class MIMEConfigYM extends MIMEConfig {
     }
 
     /**
-     * Validates if it can create temporary files. Otherwise, it stores attachment contents in memory.
+     * Validates if it can create temporary files, in every spill directory if there are {@link SpillDirectories}, marking those where it cannot
+     * unhealthy. Otherwise, it stores attachment contents in memory.
      */
     @Override
     public void validate() {
         if (!isOnlyMemory()) {
+            if (spillDirectories != null) {
+                if (!spillDirectories.validate(prefix, suffix)) {
+                    memoryThreshold = -1L; // whole attachment will be in-memory
+                }
+                return;
+            }
             try {
                 File tempFile = (tempDir == null) ? File.createTempFile(prefix, suffix) : File.createTempFile(prefix, suffix, tempDir);
                 boolean deleted = tempFile.delete();
@@ -290,4 +333,220 @@ public class MIMEConfigYM extends MIMEConfig {
     public void setMaxMIMESize(final int maxMIMESize) {
         this.maxMIMESize = maxMIMESize;
     }
+
+    /**
+     * Get max header block size.
+     *
+     * @return int.
+     */
+    public int getMaxHeaderBlockSize() {
+        return this.maxHeaderBlockSize;
+    }
+
+    /**
+     * Set the limit of the headers of a part. The parse buffer grows while the empty line that ends the headers is not found, by half its size
+     * each time, and parsing fails with a MIMEParsingException once more than this many bytes are buffered.
+     *
+     * @param maxHeaderBlockSize int.
+     */
+    public void setMaxHeaderBlockSize(final int maxHeaderBlockSize) {
+        this.maxHeaderBlockSize = maxHeaderBlockSize;
+    }
+
+    /**
+     * Get boolean slidingWindowBuffer.
+     *
+     * @return boolean.
+     */
+    public boolean isSlidingWindowBuffer() {
+        return this.slidingWindowBuffer;
+    }
+
+    /**
+     * When enabled, the parser keeps one parse buffer for the whole message and slides the unparsed bytes to its front, instead of allocating a
+     * new buffer of chunkSize + boundary + LWSP bytes for every chunk. Preamble and header bytes are dropped without any allocation, and content
+     * chunks are copied out into arrays of exactly their size.
+     *
+     * @param slidingWindowBuffer boolean.
+     */
+    public void setSlidingWindowBuffer(final boolean slidingWindowBuffer) {
+        this.slidingWindowBuffer = slidingWindowBuffer;
+    }
+
+    /**
+     * Get the chunk buffer pool.
+     *
+     * @return ChunkBufferPool, null if chunks are not pooled.
+     */
+    public ChunkBufferPool getChunkBufferPool() {
+        return this.chunkBufferPool;
+    }
+
+    /**
+     * Sets the pool the parser borrows content chunk buffers from. Buffers are given back when the part is closed and its read streams are closed
+     * or read to the end, see {@link MIMEPartPartial#close()} and {@link MIMEMessagePartial#close()}. A pool implies the sliding window buffer,
+     * since chunks are copied out of the parse buffer into pooled buffers.
+     *
+     * @param chunkBufferPool ChunkBufferPool, null to disable pooling.
+     */
+    public void setChunkBufferPool(final ChunkBufferPool chunkBufferPool) {
+        this.chunkBufferPool = chunkBufferPool;
+    }
+
+    /**
+     * Get boolean offHeap.
+     *
+     * @return boolean.
+     */
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    /**
+     * When enabled, in-memory part content is kept in direct ByteBuffers instead of heap arrays. Only the parser's own sliding window buffer stays
+     * on the heap. Direct buffers are only freed by the garbage collector, so with many messages use a direct
+     * {@link BoundedChunkBufferPool} too; a configured pool decides what kind of buffer is used.
+     *
+     * @param offHeap boolean.
+     */
+    public void setOffHeap(final boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Get boolean lowLatency.
+     *
+     * @return boolean.
+     */
+    public boolean isLowLatency() {
+        return this.lowLatency;
+    }
+
+    /**
+     * When enabled, the parser does not wait for the parse buffer to fill. Each read from the InputStream is parsed right away, and the content
+     * read so far is emitted, except for the last few bytes that may still be the start of a boundary. With a slow client the first bytes of a
+     * part reach the reader after one read instead of after chunkSize bytes, at the cost of more and smaller chunks, which are coalesced in
+     * memory.
+     *
+     * @param lowLatency boolean.
+     */
+    public void setLowLatency(final boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
+    /**
+     * Get the read ahead executor.
+     *
+     * @return Executor, null if the InputStream is read on the parsing thread.
+     */
+    public Executor getReadAheadExecutor() {
+        return this.readAheadExecutor;
+    }
+
+    /**
+     * Sets an executor that reads the InputStream of a message ahead, so that reading from the network overlaps with finding boundaries and
+     * storing content. It runs one task per message for as long as the message is read, so it must be able to run a task for every message parsed
+     * at the same time, for example a cached thread pool, or a virtual thread per task executor on newer JDKs. The task ends at the end of the
+     * stream or when the message is closed. Push mode and mapped files do not read ahead.
+     *
+     * @param readAheadExecutor Executor, null to read on the parsing thread.
+     */
+    public void setReadAheadExecutor(final Executor readAheadExecutor) {
+        this.readAheadExecutor = readAheadExecutor;
+    }
+
+    /**
+     * Get the memory governor.
+     *
+     * @return MemoryGovernor, null if there is none.
+     */
+    public MemoryGovernor getMemoryGovernor() {
+        return this.memoryGovernor;
+    }
+
+    /**
+     * Sets a memory governor, shared by the configs of all messages that are parsed at the same time. Part content is kept in memory up to the
+     * memory threshold of each part, and only while the governor's budget has room for it.
+     *
+     * @param memoryGovernor MemoryGovernor, null for no budget across parts.
+     */
+    public void setMemoryGovernor(final MemoryGovernor memoryGovernor) {
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    /**
+     * Get the spill writer.
+     *
+     * @return SpillWriter, null if spilled chunks are written on the parsing thread.
+     */
+    public SpillWriter getSpillWriter() {
+        return this.spillWriter;
+    }
+
+    /**
+     * Sets a writer that writes the chunks of spilled parts on its own threads, so parsing does not wait for the disk unless the writer's queue
+     * is full. It is usually shared by the configs of all messages, and has to be closed when it is no longer used.
+     *
+     * @param spillWriter SpillWriter, null to write on the parsing thread.
+     */
+    public void setSpillWriter(final SpillWriter spillWriter) {
+        this.spillWriter = spillWriter;
+    }
+
+    /**
+     * Get when spill files are forced to the disk.
+     *
+     * @return Fsync.
+     */
+    public SpillWriter.Fsync getSpillFsync() {
+        return this.spillFsync;
+    }
+
+    /**
+     * Sets when spill files are forced to the disk, with or without a spill writer. The default is never, since spill files are deleted when
+     * the message is closed.
+     *
+     * @param spillFsync Fsync.
+     */
+    public void setSpillFsync(final SpillWriter.Fsync spillFsync) {
+        this.spillFsync = spillFsync;
+    }
+
+    /**
+     * Get the spill directories.
+     *
+     * @return SpillDirectories, null if spill files are created in the temp dir.
+     */
+    public SpillDirectories getSpillDirectories() {
+        return this.spillDirectories;
+    }
+
+    /**
+     * Sets directories, usually on different disks, that the spill files of messages are spread over instead of the temp dir of
+     * {@link #setDirYM(String)}.
+     *
+     * @param spillDirectories SpillDirectories, null to use the temp dir.
+     */
+    public void setSpillDirectories(final SpillDirectories spillDirectories) {
+        this.spillDirectories = spillDirectories;
+    }
+
+    /**
+     * Get which spilled parts are compressed.
+     *
+     * @return SpillCompression.
+     */
+    public SpillCompression getSpillCompression() {
+        return this.spillCompression;
+    }
+
+    /**
+     * Sets which parts are compressed when they are spilled, which trades CPU of the parsing thread for fewer bytes on the disk. Parts are
+     * decompressed when they are read.
+     *
+     * @param spillCompression SpillCompression.
+     */
+    public void setSpillCompression(final SpillCompression spillCompression) {
+        this.spillCompression = spillCompression;
+    }
 }
@@ -69,4 +69,35 @@ abstract class MIMEEventPartial extends MIMEEvent {
             return isPartial;
         }
     }
+
+    /**
+     * Headers event of a part, with headers that are decoded when they are looked up. The base class Headers needs InternetHeaders.
+     */
+    static final class HeadersPartial extends MIMEEventPartial {
+        /** Headers of the part. */
+        private final IndexedHeaders ih;
+
+        /**
+         * Constructor.
+         *
+         * @param ih IndexedHeaders.
+         */
+        HeadersPartial(final IndexedHeaders ih) {
+            this.ih = ih;
+        }
+
+        @Override
+        EVENT_TYPE getEventType() {
+            return EVENT_TYPE.HEADERS;
+        }
+
+        /**
+         * Gets the headers.
+         *
+         * @return IndexedHeaders.
+         */
+        IndexedHeaders getHeaders() {
+            return ih;
+        }
+    }
 }
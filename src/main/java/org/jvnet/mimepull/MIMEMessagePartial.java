@@ -6,7 +6,13 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -24,8 +30,12 @@ public class MIMEMessagePartial extends MIMEMessage {
 
     // MIMEConfig config;
 
-    /** No change from base class. */
+    /** No change from base class. null in push mode. */
     private final InputStream in;
+    /** The parser, kept to push bytes to it in push mode. */
+    private final MIMEParserPartial parser;
+    /** true if the bytes are pushed with {@link #feed(ByteBuffer)}. */
+    private final boolean push;
     /** No change from base class. */
     private final Iterator<MIMEEvent> it;
     /** No change from base class. */
@@ -43,6 +53,14 @@ public class MIMEMessagePartial extends MIMEMessage {
     private final Map<String, MIMEPartPartial> partsMap = new HashMap<>(initialCapacity);
     /** boolean for partial message. */
     private boolean isPartial = false;
+    /** Same as config, the base class field is typed MIMEConfig. */
+    private final MIMEConfigYM configYM;
+    /** Index of the first part in the whole message, not 0 if resumed from a checkpoint. */
+    private final int firstPartIndex;
+    /** File the spilled parts of the message are written to, deleted on close. */
+    private final SpillFile spillFile;
+    /** true once the owner released the message, see {@link #release(int)}. Guarded by this. */
+    private boolean released;
 
     /**
      * see MIMEMessage.MIMEMessage(InputStream, String, MIMEConfig)
@@ -62,10 +80,157 @@ public class MIMEMessagePartial extends MIMEMessage {
      * @param config various configuration parameters
      */
     public MIMEMessagePartial(final InputStream in, final String boundary, final MIMEConfigYM config) {
+        this(in, null, boundary, config);
+    }
+
+    /**
+     * Creates a MIME message from a channel, which is read in blocking mode. Use push mode for non-blocking channels.
+     *
+     * A FileChannel is mapped from its position to the end of the file and closed, and parsed like a file given by its path. Other channels
+     * are read through a stream, which reads into the parse buffer as directly as reading the channel would.
+     *
+     * @param channel MIME message channel, closed when EOF is reached.
+     * @param boundary the separator for parts(pass it without --)
+     * @param config various configuration parameters
+     */
+    public MIMEMessagePartial(final ReadableByteChannel channel, final String boundary, final MIMEConfigYM config) {
+        this(channel, map(channel), boundary, config);
+    }
+
+    /**
+     * Creates a MIME message from a channel that is mapped, or read through a stream if it cannot be mapped.
+     *
+     * @param channel MIME message channel.
+     * @param mapped the mapped rest of the channel, or null.
+     * @param boundary the separator for parts(pass it without --)
+     * @param config various configuration parameters
+     */
+    private MIMEMessagePartial(final ReadableByteChannel channel, final ByteBuffer mapped, final String boundary, final MIMEConfigYM config) {
+        this(mapped == null ? Channels.newInputStream(channel) : null, mapped, boundary, config);
+    }
+
+    /**
+     * Creates a MIME message from a file. The file is mapped into memory, and the content of the parts are slices of the mapped file instead of
+     * copies. The mapped bytes count against the memory threshold like other content, so use a threshold of -1 to never copy them to a temp file.
+     *
+     * @param path MIME message file, at most 2GB.
+     * @param boundary the separator for parts(pass it without --)
+     * @param config various configuration parameters
+     * @throws IOException if the file cannot be mapped.
+     */
+    public MIMEMessagePartial(final Path path, final String boundary, final MIMEConfigYM config) throws IOException {
+        this((InputStream) null, map(path), boundary, config);
+    }
+
+    /**
+     * Creates a MIME message from a stream, or from a buffer with the whole message like a mapped file.
+     *
+     * @param in MIME message stream, or null.
+     * @param source MIME message buffer, or null.
+     * @param boundary the separator for parts(pass it without --)
+     * @param config various configuration parameters
+     */
+    private MIMEMessagePartial(final InputStream in, final ByteBuffer source, final String boundary, final MIMEConfigYM config) {
         super(new ByteArrayInputStream(new String("").getBytes(StandardCharsets.UTF_8)), boundary, config);
         this.in = in;
+        this.push = false;
+        this.config = config;
+        this.configYM = config;
+        this.spillFile = new SpillFile(config);
+        this.firstPartIndex = 0;
+        this.parser = source != null ? new MIMEParserPartial(source, boundary, config) : new MIMEParserPartial(in, boundary, config);
+        it = parser.iterator();
+
+        if (config.isParseEagerly()) {
+            parseAllPartial();
+        }
+    }
+
+    /**
+     * Maps a file read only. The mapping stays valid after the channel is closed.
+     *
+     * @param path Path.
+     * @return MappedByteBuffer.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private static MappedByteBuffer map(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be mapped: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Maps the rest of a file channel read only, and closes the channel. The mapping stays valid after that.
+     *
+     * @param channel ReadableByteChannel.
+     * @return MappedByteBuffer, or null if channel is not a FileChannel or the rest of the file is too large to be mapped.
+     */
+    private static MappedByteBuffer map(final ReadableByteChannel channel) {
+        if (!(channel instanceof FileChannel)) {
+            return null;
+        }
+        final FileChannel file = (FileChannel) channel;
+        try {
+            final long position = file.position();
+            final long size = file.size() - position;
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            final MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, position, size);
+            file.close();
+            return mapped;
+        } catch (final IOException ioe) {
+            throw new MIMEParsingException(ioe);
+        }
+    }
+
+    /**
+     * Creates a MIME message in push mode. Nothing is read from a stream, the bytes are pushed with {@link #feed(ByteBuffer)} as they arrive, for
+     * example from a servlet ReadListener or a selector loop, and {@link #endOfInput()} is called at the end. Neither ever blocks.
+     *
+     * Every call parses as far as the pushed bytes allow, and the parts show up in {@link #getAttachmentsPartial()} as their headers are parsed.
+     * The content of a part can be read once {@link MIMEPartPartial#isParsed()} is true. Reading beyond the pushed content of a part that is not
+     * parsed yet throws an IOException, since waiting for more bytes would block.
+     *
+     * @param boundary the separator for parts(pass it without --)
+     * @param config various configuration parameters
+     */
+    public MIMEMessagePartial(final String boundary, final MIMEConfigYM config) {
+        super(new ByteArrayInputStream(new String("").getBytes(StandardCharsets.UTF_8)), boundary, config);
+        this.in = null;
+        this.push = true;
+        this.config = config;
+        this.configYM = config;
+        this.spillFile = new SpillFile(config);
+        this.firstPartIndex = 0;
+        this.parser = new MIMEParserPartial(boundary, config);
+        it = parser.iterator();
+    }
+
+    /**
+     * Resumes an interrupted message from a checkpoint, reading the rest of it from a stream. The stream has to start at
+     * {@link MIMEParserCheckpoint#getBytesConsumed()} of the original message. The parts before {@link MIMEParserCheckpoint#getPartIndex()} are
+     * not in this message, and if the checkpoint was taken in the body of a part, the first part of this message has the same headers and the
+     * rest of its content.
+     *
+     * @param in rest of the MIME message stream
+     * @param checkpoint taken with {@link #checkpoint()}
+     * @param config various configuration parameters
+     */
+    public MIMEMessagePartial(final InputStream in, final MIMEParserCheckpoint checkpoint, final MIMEConfigYM config) {
+        super(new ByteArrayInputStream(new String("").getBytes(StandardCharsets.UTF_8)), checkpoint.getBoundary(), config);
+        this.in = in;
+        this.push = false;
         this.config = config;
-        MIMEParserPartial parser = new MIMEParserPartial(in, boundary, config);
+        this.configYM = config;
+        this.spillFile = new SpillFile(config);
+        this.firstPartIndex = checkpoint.getPartIndex();
+        this.parser = new MIMEParserPartial(in, checkpoint.getBoundary(), config);
+        parser.restore(checkpoint);
         it = parser.iterator();
 
         if (config.isParseEagerly()) {
@@ -73,6 +238,96 @@ public class MIMEMessagePartial extends MIMEMessage {
         }
     }
 
+    /**
+     * Resumes an interrupted message from a checkpoint in push mode. The bytes from {@link MIMEParserCheckpoint#getBytesConsumed()} of the
+     * original message on are pushed with {@link #feed(ByteBuffer)}. See {@link #MIMEMessagePartial(InputStream, MIMEParserCheckpoint,
+     * MIMEConfigYM)} for the parts of the resumed message.
+     *
+     * @param checkpoint taken with {@link #checkpoint()}
+     * @param config various configuration parameters
+     */
+    public MIMEMessagePartial(final MIMEParserCheckpoint checkpoint, final MIMEConfigYM config) {
+        super(new ByteArrayInputStream(new String("").getBytes(StandardCharsets.UTF_8)), checkpoint.getBoundary(), config);
+        this.in = null;
+        this.push = true;
+        this.config = config;
+        this.configYM = config;
+        this.spillFile = new SpillFile(config);
+        this.firstPartIndex = checkpoint.getPartIndex();
+        this.parser = new MIMEParserPartial(checkpoint.getBoundary(), config);
+        parser.restore(checkpoint);
+        it = parser.iterator();
+    }
+
+    /**
+     * Pushes the next bytes of the message and parses them. All remaining bytes of data are consumed, they are copied so data can be reused once
+     * this returns. Bytes after the closing boundary are ignored, and so are bytes pushed after the owner of the message released it.
+     *
+     * @param data ByteBuffer.
+     */
+    public synchronized void feed(final ByteBuffer data) {
+        checkPush();
+        if (released) {
+            return;
+        }
+        parser.feed(data);
+        try {
+            parseAllPartial();
+        } finally {
+            parser.feed(null);
+        }
+    }
+
+    /**
+     * Signals that all bytes of the message were pushed and parses the rest.
+     */
+    public synchronized void endOfInput() {
+        checkPush();
+        if (released) {
+            return;
+        }
+        parser.endOfInput();
+        parseAllPartial();
+    }
+
+    /**
+     * Takes a checkpoint of an interrupted message, to resume it later with the rest of the bytes. In push mode this is possible between feeds,
+     * and in pull mode after reading the stream failed. A stream that just ends is taken for a complete message, and parsed as partial.
+     *
+     * @return MIMEParserCheckpoint.
+     * @throws IllegalStateException if the message is parsed, or the end of the input was seen.
+     */
+    public synchronized MIMEParserCheckpoint checkpoint() {
+        return parser.checkpoint(firstPartIndex + currentIndex);
+    }
+
+    /**
+     * Gets the index of the first part of this message in the whole message, which is not 0 if it was resumed from a checkpoint.
+     *
+     * @return int.
+     */
+    public int getFirstPartIndex() {
+        return firstPartIndex;
+    }
+
+    /**
+     * Checks that this message was created in push mode.
+     */
+    private void checkPush() {
+        if (!push) {
+            throw new IllegalStateException("MIMEMessagePartial reads from an InputStream or a file, bytes cannot be pushed.");
+        }
+    }
+
+    /**
+     * Gets if the whole message is parsed. In push mode this is true once the closing boundary was pushed.
+     *
+     * @return boolean.
+     */
+    public synchronized boolean isParsed() {
+        return parsed;
+    }
+
     /**
      * No change from base class.
      *
@@ -87,6 +342,16 @@ public class MIMEMessagePartial extends MIMEMessage {
         return partsList;
     }
 
+    /**
+     * Gets the attachments found so far without parsing any further, for example after parsing failed or while a message in push mode waits for
+     * more input. The last one may not be parsed yet.
+     *
+     * @return list of attachments.
+     */
+    public List<MIMEPartPartial> getAttachmentsFound() {
+        return partsList;
+    }
+
     /**
      * No change from base class except logging removed.
      *
@@ -110,6 +375,24 @@ public class MIMEMessagePartial extends MIMEMessage {
         return part;
     }
 
+    /**
+     * Gets the config of this message.
+     *
+     * @return MIMEConfigYM.
+     */
+    MIMEConfigYM getConfigYM() {
+        return configYM;
+    }
+
+    /**
+     * Gets the file the spilled parts of this message are written to.
+     *
+     * @return SpillFile.
+     */
+    SpillFile getSpillFile() {
+        return spillFile;
+    }
+
     /**
      * No change from base class.
      *
@@ -179,15 +462,40 @@ public class MIMEMessagePartial extends MIMEMessage {
     }
 
     /**
-     * Closes all parsed {@link org.jvnet.mimepull.MIMEPartPartial parts}. This method is safe to call even if parsing of message failed.
+     * Closes all parsed {@link org.jvnet.mimepull.MIMEPartPartial parts}, stops reading the input ahead, and deletes the file the parts were
+     * spilled to. This method is safe to call even if parsing of message failed.
      * 
      * Does not throw {@link org.jvnet.mimepull.MIMEParsingException} if an error occurred during closing a MIME part. The exception (if any) is still
      * logged.
      */
     @Override
     public void close() {
+        parser.close();
         close(partsList);
         close(partsMap.values());
+        try {
+            spillFile.close();
+        } catch (final MIMEParsingException closeError) {
+            // logging goes here.
+        }
+    }
+
+    /**
+     * Stops reading the input ahead, closes the parts that were not handed out, and deletes the file the parts were spilled to once every other
+     * part is closed as well. For owners that hand out the parts and do not close the message. Takes the lock of feed(), so parsing on another
+     * thread is done before, and ignores the bytes that are pushed later.
+     *
+     * @param handedOut number of parts that were handed out, the first ones.
+     */
+    synchronized void release(final int handedOut) {
+        released = true;
+        parser.close();
+        close(partsList.subList(Math.min(handedOut, partsList.size()), partsList.size()));
+        try {
+            spillFile.closeWhenUnused();
+        } catch (final MIMEParsingException closeError) {
+            // logging goes here.
+        }
     }
 
     /**
@@ -210,7 +518,7 @@ public class MIMEMessagePartial extends MIMEMessage {
      *
      * Parses the MIME message in a pull fashion.
      *
-     * @return false if the parsing is completed.
+     * @return false if the parsing is completed, or in push mode if more bytes have to be pushed.
      */
     @Override
     public synchronized boolean makeProgress() {
@@ -227,10 +535,10 @@ public class MIMEMessagePartial extends MIMEMessage {
             break;
 
         case HEADERS:
-            MIMEEventPartial.Headers headers = (MIMEEventPartial.Headers) event;
-            InternetHeaders ih = headers.getHeaders();
-            List<String> cids = ih.getHeader("content-id");
-            String cid = (cids != null) ? cids.get(0) : currentIndex + "";
+            MIMEEventPartial.HeadersPartial headers = (MIMEEventPartial.HeadersPartial) event;
+            IndexedHeaders ih = headers.getHeaders();
+            List<String> cids = ih.getHeader(HeaderNames.CONTENT_ID);
+            String cid = (cids != null) ? cids.get(0) : firstPartIndex + currentIndex + "";
             if (cid.length() > 2 && cid.charAt(0) == '<') {
                 cid = cid.substring(1, cid.length() - 1);
             }
@@ -271,10 +579,13 @@ public class MIMEMessagePartial extends MIMEMessage {
 
         case END_MESSAGE:
             parsed = true;
-            try {
-                in.close();
-            } catch (IOException ioe) {
-                throw new MIMEParsingException(ioe);
+            parser.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                    throw new MIMEParsingException(ioe);
+                }
             }
             break;
 
@@ -0,0 +1,268 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive Streams entry point for a {@link MIMEMessagePartial} in push mode. Subscribes to the ByteBuffers of a message and publishes its parts
+ * once they are parsed, so their content can be read without blocking.
+ *
+ * A part is published only after its closing boundary arrived, so the time to the first byte of a part is the upload time of the whole part.
+ * Subscribers that need the content of a large part while it is uploaded take the part from {@link MIMEMessagePartial#getAttachmentsPartial()}
+ * of {@link #getMessage()}, where it shows up once its headers are parsed, and read as far as the pushed content goes.
+ *
+ * Backpressure is passed upstream: one ByteBuffer is requested at a time, and only while the subscriber has demand and every parsed part was
+ * delivered. A subscriber that stops requesting stops the upload after the part in progress. Parts are published in message order, a partial
+ * message publishes its last part when the input completes. A parse error cancels the input and is signalled with onError. Parts that were
+ * not delivered are closed on errors and when the subscriber cancels, delivered parts are closed by the subscriber. The spill file of the
+ * message is deleted once the stream ended and every delivered part is closed.
+ *
+ * Only one subscriber is supported. The ByteBuffers are copied while parsing, so the publisher may reuse them once onNext returns.
+ */
+public class MIMEMessageProcessor implements Processor<ByteBuffer, MIMEPartPartial> {
+
+    /** The message the bytes are pushed to. */
+    private final MIMEMessagePartial message;
+    /** Parsed parts not delivered yet. */
+    private final ConcurrentLinkedQueue<MIMEPartPartial> ready = new ConcurrentLinkedQueue<>();
+    /** Number of parts moved to ready. Only used by the upstream signals. */
+    private int collected;
+    /** Number of parts delivered. Only used by drain(). */
+    private int delivered;
+    /** Outstanding demand of the subscriber. */
+    private final AtomicLong demand = new AtomicLong();
+    /** Serializes drain(), which may be called from the upstream and the downstream. */
+    private final AtomicInteger wip = new AtomicInteger();
+    /** Subscription to the ByteBuffers. */
+    private volatile Subscription upstream;
+    /** Subscriber of the parts. */
+    private volatile Subscriber<? super MIMEPartPartial> downstream;
+    /** true while a requested ByteBuffer has not arrived. */
+    private volatile boolean upstreamPending;
+    /** true once the input completed or failed. */
+    private volatile boolean upstreamDone;
+    /** Error of the input or of parsing. */
+    private volatile Throwable error;
+    /** true once the subscriber cancelled. */
+    private volatile boolean cancelled;
+    /** true once onComplete or onError was signalled downstream. */
+    private boolean terminated;
+
+    /**
+     * Constructor.
+     *
+     * @param boundary the separator for parts(pass it without --)
+     * @param config various configuration parameters
+     */
+    public MIMEMessageProcessor(final String boundary, final MIMEConfigYM config) {
+        this.message = new MIMEMessagePartial(boundary, config);
+    }
+
+    /**
+     * Gets the message, for example to look at parts before they are parsed.
+     *
+     * @return MIMEMessagePartial.
+     */
+    public MIMEMessagePartial getMessage() {
+        return message;
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(final ByteBuffer buf) {
+        upstreamPending = false;
+        if (upstreamDone || cancelled) {
+            return;
+        }
+        try {
+            message.feed(buf);
+            collect();
+        } catch (final MIMEParsingException e) {
+            upstream.cancel();
+            fail(e);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        if (!upstreamDone) {
+            fail(t);
+            drain();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (upstreamDone) {
+            return;
+        }
+        try {
+            message.endOfInput();
+            collect();
+        } catch (final MIMEParsingException e) {
+            error = e;
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super MIMEPartPartial> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(final long n) {
+                        // Nothing to do
+                    }
+
+                    @Override
+                    public void cancel() {
+                        // Nothing to do
+                    }
+                });
+                subscriber.onError(new IllegalStateException("MIMEMessageProcessor supports only one subscriber"));
+                return;
+            }
+            downstream = subscriber;
+        }
+        subscriber.onSubscribe(new PartSubscription());
+        drain();
+    }
+
+    /**
+     * Moves the parts that are parsed to ready, in message order.
+     */
+    private void collect() {
+        final List<MIMEPartPartial> parts = message.getAttachmentsPartial();
+        while (collected < parts.size() && parts.get(collected).isParsed()) {
+            ready.offer(parts.get(collected++));
+        }
+    }
+
+    /**
+     * Ends the input with an error.
+     *
+     * @param t Throwable.
+     */
+    private void fail(final Throwable t) {
+        error = t;
+        upstreamDone = true;
+    }
+
+    /**
+     * Delivers ready parts as far as the demand allows, signals the end once all are delivered, and requests the next ByteBuffer if a part is
+     * needed. Calls while draining, also from the signals that drain() itself causes, make the running drain loop again.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            final Subscriber<? super MIMEPartPartial> subscriber = downstream;
+            if (subscriber != null && !terminated) {
+                if (cancelled) {
+                    terminated = true;
+                    release();
+                } else if (upstreamDone && error != null) {
+                    terminated = true;
+                    release();
+                    subscriber.onError(error);
+                } else {
+                    MIMEPartPartial part;
+                    while (demand.get() > 0 && !cancelled && (part = ready.poll()) != null) {
+                        demand.decrementAndGet();
+                        delivered++;
+                        subscriber.onNext(part);
+                    }
+                    // when cancelled from onNext, cancel() made this loop run again
+                    if (cancelled) {
+                        missed = wip.addAndGet(-missed);
+                        continue;
+                    }
+                    if (upstreamDone && ready.isEmpty()) {
+                        terminated = true;
+                        release();
+                        if (error != null) {
+                            subscriber.onError(error);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    } else if (!upstreamDone && ready.isEmpty() && demand.get() > 0 && !upstreamPending && upstream != null) {
+                        upstreamPending = true;
+                        upstream.request(1);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Closes the parts that were not delivered, ready or still parsing, and has the spill file of the message deleted once the delivered parts
+     * are closed.
+     */
+    private void release() {
+        ready.clear();
+        message.release(delivered);
+    }
+
+    /**
+     * Subscription of the downstream subscriber.
+     */
+    private final class PartSubscription implements Subscription {
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                final Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                fail(new IllegalArgumentException("Rule 3.9: request must be positive, got " + n));
+                drain();
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                final Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.jvnet.mimepull;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of the parser of an interrupted upload, taken with {@link MIMEMessagePartial#checkpoint()}. A new MIMEMessagePartial created from it
+ * continues parsing with the bytes after {@link #getBytesConsumed()}, so a resumed upload only sends and parses the rest of the message.
+ *
+ * It holds the parser state, the index of the next or current part, the bytes consumed so far, the bytes read but not parsed yet, and the headers
+ * of the part whose body was being parsed. It is serializable, to keep it with the upload session until the client comes back.
+ */
+public final class MIMEParserCheckpoint implements Serializable {
+
+    /** Serial version. */
+    private static final long serialVersionUID = 1L;
+
+    /** The separator for parts, without --. */
+    private final String boundary;
+    /** Name of the parser state. */
+    private final String state;
+    /** Index of the part being parsed, or of the next part. */
+    private final int partIndex;
+    /** Number of bytes of the message consumed by the parser. */
+    private final long bytesConsumed;
+    /** Bytes consumed but not parsed yet. */
+    private final byte[] tail;
+    /** true if tail starts at the beginning of a line. */
+    private final boolean bol;
+    /** true if the body of the current part is only searched for boundaries at line starts. */
+    private final boolean lineAnchored;
+    /** No boundary starts before this index of tail. */
+    private final int scanFrom;
+    /** Raw header lines of the part whose body is being parsed, null if not in a body. */
+    private final ArrayList<String> headerLines;
+
+    /**
+     * Constructor.
+     *
+     * @param boundary String.
+     * @param state String.
+     * @param partIndex int.
+     * @param bytesConsumed long.
+     * @param tail byte array.
+     * @param bol boolean.
+     * @param lineAnchored boolean.
+     * @param scanFrom int.
+     * @param headerLines List, null if not in a body.
+     */
+    MIMEParserCheckpoint(final String boundary, final String state, final int partIndex, final long bytesConsumed, final byte[] tail,
+            final boolean bol, final boolean lineAnchored, final int scanFrom, final List<String> headerLines) {
+        this.boundary = boundary;
+        this.state = state;
+        this.partIndex = partIndex;
+        this.bytesConsumed = bytesConsumed;
+        this.tail = tail;
+        this.bol = bol;
+        this.lineAnchored = lineAnchored;
+        this.scanFrom = scanFrom;
+        this.headerLines = headerLines == null ? null : new ArrayList<>(headerLines);
+    }
+
+    /**
+     * Gets the separator for parts.
+     *
+     * @return String, without --.
+     */
+    public String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Gets the index of the part that was being parsed, or of the next part. The first part of the resumed message has this index, and if the
+     * checkpoint was taken in its body, it gets the rest of the content of that part.
+     *
+     * @return int.
+     */
+    public int getPartIndex() {
+        return partIndex;
+    }
+
+    /**
+     * Gets the number of bytes of the message consumed so far. The resumed message has to be given the bytes from this offset on.
+     *
+     * @return long.
+     */
+    public long getBytesConsumed() {
+        return bytesConsumed;
+    }
+
+    /**
+     * Gets the number of bytes consumed but not parsed yet, which are kept in the checkpoint.
+     *
+     * @return int.
+     */
+    public int getTailLength() {
+        return tail.length;
+    }
+
+    /**
+     * Gets the name of the parser state.
+     *
+     * @return String.
+     */
+    String getState() {
+        return state;
+    }
+
+    /**
+     * Gets the bytes consumed but not parsed yet.
+     *
+     * @return byte array, not copied.
+     */
+    byte[] getTail() {
+        return tail;
+    }
+
+    /**
+     * Gets bol.
+     *
+     * @return boolean.
+     */
+    boolean isBol() {
+        return bol;
+    }
+
+    /**
+     * Gets lineAnchored.
+     *
+     * @return boolean.
+     */
+    boolean isLineAnchored() {
+        return lineAnchored;
+    }
+
+    /**
+     * Gets scanFrom.
+     *
+     * @return int.
+     */
+    int getScanFrom() {
+        return scanFrom;
+    }
+
+    /**
+     * Gets the raw header lines of the part whose body was being parsed.
+     *
+     * @return List, null if the checkpoint was not taken in a body.
+     */
+    List<String> getHeaderLines() {
+        return headerLines;
+    }
+}
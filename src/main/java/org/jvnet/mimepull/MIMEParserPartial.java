@@ -3,9 +3,14 @@ package org.jvnet.mimepull;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 
 /**
  * Customized MIMEParser. All methods overridden because base class has privates.
@@ -15,9 +20,6 @@ import java.util.Iterator;
  */
 class MIMEParserPartial extends MIMEParser {
 
-    /** No change from base class. */
-    private static final String HEADER_ENCODING = "ISO8859-1";
-
     // Actually, the grammar doesn't support whitespace characters
     // after boundary. But the mail implementation checks for it.
     // We will only check for these many whitespace characters after boundary
@@ -43,18 +45,22 @@ class MIMEParserPartial extends MIMEParser {
     /** No change from base class. */
     private STATE state = STATE.START_MESSAGE;
 
-    /** No change from base class. */
+    /** No change from base class, except it may be read ahead. */
     private final InputStream in;
+    /** Same as in if it is read ahead, otherwise null. */
+    private final ReadAheadInputStream readAhead;
     /** No change from base class. */
     private final byte[] bndbytes;
     /** No change from base class. */
     private final int bl;
     /** This is derived from base class. */
     private final MIMEConfigYM config;
-    /** No change from base class. */
-    private final int[] bcs = new int[128]; // BnM algo: Bad Character Shift table
-    /** No change from base class. */
-    private final int[] gss; // BnM algo : Good Suffix Shift table
+    /** Finds the boundary, replaces the Boyer-Moore tables of the base class. */
+    private final BoundaryMatcher matcher;
+    /** true if the current part's body cannot contain '-', so the boundary is only looked for at line starts. */
+    private boolean lineAnchored;
+    /** No boundary starts before this index of buf. Set when bytes known to be content are kept in buf after a chunk. */
+    private int scanFrom;
 
     /**
      * Have we parsed the data from our InputStream yet?
@@ -82,9 +88,33 @@ class MIMEParserPartial extends MIMEParser {
     /** maxInputStreamSize limit. */
     protected final int maxInputStreamSize;
     /** counter for number of bytes read from InputStream. */
-    private int totalBytesRead;
+    private long totalBytesRead;
     /** truncate size for partial message. */
     protected final int moduloTruncateSize = 4;
+    /** Reuse buf in place instead of allocating a new one for every chunk. */
+    private final boolean slidingWindow;
+    /** Pool for content chunks, can be null. */
+    private final ChunkBufferPool pool;
+    /** Copy content chunks into direct buffers. */
+    private final boolean offHeap;
+    /** true if the bytes are pushed with {@link #feed(ByteBuffer)} or given in a buffer, instead of read from in. */
+    private final boolean push;
+    /** Fill buf with a single read and emit content without waiting for a full chunk. */
+    private final boolean lowLatency;
+    /** true if the whole message was given in a buffer, content chunks are slices of it. */
+    private final boolean sliceInput;
+    /** Pushed bytes not copied to buf yet. buf always holds the len bytes in front of its position. */
+    private ByteBuffer input;
+    /** true once no more bytes will be pushed. */
+    private boolean endOfInput;
+    /** Content chunk read by the iterator's hasNext() in push mode, returned by the next call of next(). */
+    private ByteBuffer readyChunk;
+    /** Headers of the current part, kept for a checkpoint in its body. */
+    private IndexedHeaders partHeaders;
+    /** Headers of the part a checkpoint was taken in, returned by the first call of next() after resuming. */
+    private IndexedHeaders resumedHeaders;
+    /** Finds and splits the header blocks. */
+    private final HeaderBlockScanner headerScanner = new HeaderBlockScanner();
 
 
     /**
@@ -92,24 +122,142 @@ class MIMEParserPartial extends MIMEParser {
      *
      * This calls super with min memory alloc, adds totalBytes behavior. Made params final. No other changes from base class.
      *
-     * @param in InputStream.
+     * @param in InputStream, or null to push the bytes with {@link #feed(ByteBuffer)}.
      * @param boundary String.
      * @param config MIMEConfig.
      */
     MIMEParserPartial(final InputStream in, final String boundary, final MIMEConfigYM config) {
+        this(in, null, boundary, config);
+    }
+
+    /**
+     * Parses the MIME content in a buffer, like a mapped file. The content chunks are slices of the buffer, so no chunk buffers are allocated or
+     * filled, and the body bytes are searched for boundaries in place. Only preambles, header blocks and the bytes around a boundary are copied
+     * to buf.
+     *
+     * @param source ByteBuffer with the whole message, its position is advanced while parsing.
+     * @param boundary String.
+     * @param config MIMEConfig.
+     */
+    MIMEParserPartial(final ByteBuffer source, final String boundary, final MIMEConfigYM config) {
+        this(null, source, boundary, config);
+    }
+
+    /**
+     * Parses the MIME content from in, from source, or pushed if both are null.
+     *
+     * @param in InputStream.
+     * @param source ByteBuffer.
+     * @param boundary String.
+     * @param config MIMEConfig.
+     */
+    private MIMEParserPartial(final InputStream in, final ByteBuffer source, final String boundary, final MIMEConfigYM config) {
         super(new ByteArrayInputStream(new String("").getBytes(StandardCharsets.UTF_8)), boundary, new MIMEConfigYM(false, 1, 2, false));
-        this.in = in;
+        this.push = in == null;
+        this.sliceInput = source != null;
+        this.input = source;
+        this.endOfInput = source != null;
         this.bndbytes = getBytes("--" + boundary);
         bl = bndbytes.length;
         this.config = config;
-        gss = new int[bl];
         this.totalBytesRead = 0;
         this.maxInputStreamSize = config.getMaxMIMESize();
-        compileBoundaryPattern();
+        this.pool = config.getChunkBufferPool();
+        this.offHeap = config.isOffHeap();
+        this.slidingWindow = config.isSlidingWindowBuffer() || pool != null || offHeap;
+        this.lowLatency = config.isLowLatency();
+        this.matcher = new BoundaryMatcher(bndbytes);
 
         // \r\n + boundary + "--\r\n" + lots of LWSP
         capacity = config.chunkSize + 2 + bl + 4 + NO_LWSP;
         createBuf(capacity);
+
+        final Executor executor = config.getReadAheadExecutor();
+        this.readAhead = in != null && executor != null ? ReadAheadInputStream.start(in, capacity, executor) : null;
+        this.in = readAhead != null ? readAhead : in;
+    }
+
+    /**
+     * Parses MIME content that is pushed with {@link #feed(ByteBuffer)} and {@link #endOfInput()}. The parser never blocks, its iterator has no
+     * next event while it waits for more bytes.
+     *
+     * @param boundary String.
+     * @param config MIMEConfig.
+     */
+    MIMEParserPartial(final String boundary, final MIMEConfigYM config) {
+        this(null, null, boundary, config);
+    }
+
+    /**
+     * Pushes bytes to the parser. The bytes are copied to the parse buffer while the iterator advances, and are all copied once the iterator has
+     * no next event, unless the message has ended before them.
+     *
+     * @param data ByteBuffer, its position is advanced.
+     */
+    void feed(final ByteBuffer data) {
+        assert push && !sliceInput;
+        input = data;
+    }
+
+    /**
+     * Signals that no more bytes will be pushed.
+     */
+    void endOfInput() {
+        assert push && !sliceInput;
+        endOfInput = true;
+    }
+
+    /**
+     * Takes a checkpoint of the parser. Possible while the parser waits for more bytes: in push mode between feeds, and in pull mode after the
+     * stream failed or between events before and in a part's body.
+     *
+     * @param partIndex index of the part being parsed, or of the next part.
+     * @return MIMEParserCheckpoint.
+     * @throws IllegalStateException if the end of the input was seen, or the parser is between a part's body and the next part.
+     */
+    MIMEParserCheckpoint checkpoint(final int partIndex) {
+        if (eof || parsed || readyChunk != null || resumedHeaders != null || sliceInput
+                || state != STATE.START_MESSAGE && state != STATE.SKIP_PREAMBLE && state != STATE.START_PART && state != STATE.HEADERS
+                        && state != STATE.BODY) {
+            throw new IllegalStateException("No checkpoint possible in parser state " + state + (eof ? " after the end of the input" : ""));
+        }
+        List<String> headerLines = null;
+        if (state == STATE.BODY) {
+            headerLines = partHeaders.getLines();
+        }
+        final String boundary = new String(bndbytes, 2, bl - 2, StandardCharsets.ISO_8859_1);
+        return new MIMEParserCheckpoint(boundary, state.name(), partIndex, totalBytesRead, Arrays.copyOf(buf, len), bol, lineAnchored, scanFrom,
+                headerLines);
+    }
+
+    /**
+     * Continues from a checkpoint. Called right after construction with the same boundary, the bytes after the checkpoint come from the input.
+     *
+     * @param checkpoint MIMEParserCheckpoint.
+     */
+    void restore(final MIMEParserCheckpoint checkpoint) {
+        state = STATE.valueOf(checkpoint.getState());
+        final byte[] tail = checkpoint.getTail();
+        createBuf(tail.length);
+        System.arraycopy(tail, 0, buf, 0, tail.length);
+        len = tail.length;
+        bol = checkpoint.isBol();
+        lineAnchored = checkpoint.isLineAnchored();
+        scanFrom = checkpoint.getScanFrom();
+        totalBytesRead = checkpoint.getBytesConsumed();
+        if (state == STATE.BODY) {
+            partHeaders = IndexedHeaders.of(checkpoint.getHeaderLines());
+            resumedHeaders = partHeaders;
+        }
+    }
+
+    /**
+     * Stops reading ahead, if the input is read ahead. The input itself is closed at its end, as in the base class.
+     */
+    void close() {
+        if (readAhead != null) {
+            readAhead.stop();
+        }
     }
 
     /**
@@ -131,45 +279,70 @@ class MIMEParserPartial extends MIMEParser {
     class MIMEEventIterator implements Iterator<MIMEEvent> {
 
         /**
-         * No change from base class.
+         * No change from base class, except in push mode there is no next event until enough bytes are pushed for it, and the headers of a part
+         * resumed from a checkpoint are returned first.
          */
         @Override
         public boolean hasNext() {
-            return !parsed;
+            return !parsed && (!push || readyChunk != null || resumedHeaders != null || ready());
         }
 
         /**
          * This is the next implementation for iterator.
          *
-         * Only BODY case is changed to support partial, and logging removed. No change from base class.
+         * Only BODY case is changed to support partial, HEADERS picks the boundary search for the body, and logging removed. No change from base
+         * class.
          */
         @Override
         public MIMEEvent next() {
+            if (resumedHeaders != null) {
+                // resumed in the body of a part, the message needs its headers
+                final IndexedHeaders ih = resumedHeaders;
+                resumedHeaders = null;
+                return new MIMEEventPartial.HeadersPartial(ih);
+            }
+            if (readyChunk != null) {
+                // read in push mode by hasNext(), the state may already be END_PART
+                final ByteBuffer buf = readyChunk;
+                readyChunk = null;
+                return contentEvent(buf);
+            }
             switch (state) {
             case START_MESSAGE:
                 state = STATE.SKIP_PREAMBLE;
                 return MIMEEvent.START_MESSAGE;
 
             case SKIP_PREAMBLE:
-                skipPreamble();
+                if (!skipPreamble()) {
+                    throw noInput();
+                }
                 // fall through
             case START_PART:
                 state = STATE.HEADERS;
                 return MIMEEvent.START_PART;
 
             case HEADERS:
-                InternetHeaders ih = readHeaders();
+                if ((lowLatency || push) && !fillHeaderBlock()) {
+                    throw noInput();
+                }
+                IndexedHeaders ih = readHeaders();
+                partHeaders = ih;
                 state = STATE.BODY;
                 bol = true;
-                return new MIMEEvent.Headers(ih);
+                lineAnchored = isBase64(ih);
+                return new MIMEEventPartial.HeadersPartial(ih);
 
             case BODY:
-                ByteBuffer buf = readBody();
-                bol = false;
-                if (isPartial) {
-                    return new MIMEEventPartial.ContentPartial(buf, isPartial);
+                ByteBuffer chunk;
+                while ((chunk = readBody()) == null) {
+                    // low latency mode, buf has no content that can be emitted yet
+                    final int before = len;
+                    fillBuf();
+                    if (push && len == before && !eof) {
+                        throw noInput();
+                    }
                 }
-                return new MIMEEventPartial.ContentPartial(buf);
+                return contentEvent(chunk);
 
             case END_PART:
                 if (done) {
@@ -188,6 +361,29 @@ class MIMEParserPartial extends MIMEParser {
             }
         }
 
+        /**
+         * Creates the error of next() in push mode when hasNext() is false because more bytes have to be pushed, instead of waiting for them.
+         *
+         * @return NoSuchElementException.
+         */
+        private NoSuchElementException noInput() {
+            return new NoSuchElementException("No next event in parser state " + state + " until more bytes are pushed");
+        }
+
+        /**
+         * Creates the event for a content chunk. No change from base class.
+         *
+         * @param buf content chunk.
+         * @return MIMEEvent.
+         */
+        private MIMEEvent contentEvent(final ByteBuffer buf) {
+            bol = false;
+            if (isPartial) {
+                return new MIMEEventPartial.ContentPartial(buf, isPartial);
+            }
+            return new MIMEEventPartial.ContentPartial(buf);
+        }
+
         /**
          * No change from base class.
          */
@@ -198,15 +394,97 @@ class MIMEParserPartial extends MIMEParser {
     }
 
     /**
-     * No change from base class. Collects the headers for the current part by parsing mesage stream.
+     * Checks if the next step in push mode has the bytes it needs, and copies pushed bytes to buf for it. Headers need the whole header block in
+     * buf, which is grown if the block does not fit. The preamble is skipped and the next content chunk is read here, since only trying tells if
+     * the pushed bytes are enough.
+     *
+     * @return false if more bytes have to be pushed.
+     */
+    private boolean ready() {
+        switch (state) {
+        case SKIP_PREAMBLE:
+            if (!skipPreamble()) {
+                return false;
+            }
+            state = STATE.START_PART;
+            return true;
+
+        case HEADERS:
+            return fillHeaderBlock();
+
+        case BODY:
+            if (readyChunk == null) {
+                readyChunk = readBody();
+            }
+            return readyChunk != null;
+
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Reads until buf has the whole header block, growing buf if the block does not fit.
+     *
+     * @return false if more bytes have to be pushed, which only happens in push mode.
+     */
+    private boolean fillHeaderBlock() {
+        // in low latency mode buf may already have the header block, only read if it does not
+        if (!eof && push) {
+            fillBuf();
+        }
+        while (!eof && headerScanner.find(buf, len) == -1) {
+            if (len == buf.length) {
+                growBuf();
+            } else if (push) {
+                return false;
+            } else {
+                fillBuf();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the headers for the current part by parsing mesage stream. The end of the header block is found first, and buf grows until it
+     * holds the whole block, then the block is split into lines in one pass. In low latency mode and push mode the header block is already in
+     * buf.
+     *
+     * Instead of a String per line, the header block is copied once and the lines are given as offsets, names and values are only decoded when
+     * they are looked up. If the input ends before the empty line that ends the block, the lines read so far are the headers and nothing is
+     * discarded from buf, as in the base class.
      *
      * @return headers for the current part
      */
-    private InternetHeaders readHeaders() {
-        if (!eof) {
+    private IndexedHeaders readHeaders() {
+        if (!eof && !lowLatency) {
             fillBuf();
         }
-        return new InternetHeaders(new LineInputStream());
+        int end;
+        while ((end = headerScanner.find(buf, len)) == -1 && !eof) {
+            if (len == buf.length) {
+                growBuf();
+            } else {
+                fillBuf();
+            }
+        }
+        final IndexedHeaders headers = headerScanner.split(buf, end);
+        if (end != -1) {
+            discardBuf(len - end);
+        }
+        return headers;
+    }
+
+    /**
+     * Checks the Content-Transfer-Encoding of a part. '-' is not in the base64 alphabet, so a base64 body can only contain the boundary at the
+     * start of a line.
+     *
+     * @param ih headers of the part.
+     * @return true if the body is base64.
+     */
+    private static boolean isBase64(final IndexedHeaders ih) {
+        final List<String> cte = ih.getHeader(HeaderNames.CONTENT_TRANSFER_ENCODING);
+        return cte != null && !cte.isEmpty() && "base64".equalsIgnoreCase(cte.get(0).trim());
     }
 
     /**
@@ -214,84 +492,157 @@ class MIMEParserPartial extends MIMEParser {
      *
      * Reads and saves the part of the current attachment part's content. At the end of this method, buf should have the remaining data at index 0.
      *
-     * @return a chunk of the part's content
+     * In push mode and low latency mode buf may not be full. Content before a boundary is returned right away, other content once it fills a
+     * chunk, or in low latency mode as soon as it cannot be the start of a boundary.
+     *
+     * @return a chunk of the part's content, or null in push mode and low latency mode if more bytes have to be read
      *
      */
     private ByteBuffer readBody() {
-        if (!eof) {
+        if (sliceInput && !eof) {
+            final ByteBuffer chunk = sliceBody();
+            if (chunk != null) {
+                return chunk;
+            }
+        }
+        // in low latency mode the caller reads more when null is returned, so bytes already in buf are emitted without waiting for a read
+        if (!eof && (push || !lowLatency)) {
             fillBuf();
         }
-        int start = match(buf, 0, len); // matches boundary
-        if (start == -1) {
-            // No boundary is found
-            assert eof || len >= config.chunkSize;
-            int chunkSize = eof ? len : config.chunkSize;
-            if (eof) {
-                done = true;
-                if (config.isEnablePartial()) {
-                    // This is for partial message parsing.
-                    isPartial = true;
-                    state = STATE.END_PART;
-                    // This is for truncating at 4 byte boundaries for base64 encoding, and don't care for other encoding formats.
-                    final int remaining = len - chunkSize;
-                    final int chunkSizeMod4 = chunkSize % moduloTruncateSize;
-                    final int chunkSizeTruncated = chunkSize - chunkSizeMod4;
-                    return adjustBuf(chunkSizeTruncated, remaining);
-                } else {
-                    throw new MIMEParsingException("Reached EOF, but there is no closing MIME boundary.");
+        final int from = scanFrom;
+        scanFrom = 0;
+        int start = matchBody(from); // matches boundary
+        while (start != -1) {
+            // Found boundary.
+            // Is it at the start of a line ?
+            int chunkLen = start;
+            if (bol && start == 0) {
+                // nothing to do
+            } else if (start > 0 && (buf[start - 1] == '\n' || buf[start - 1] == '\r')) {
+                --chunkLen;
+                if (buf[start - 1] == '\n' && start > 1 && buf[start - 2] == '\r') {
+                    --chunkLen;
                 }
+            } else {
+                start = matchBody(start + 1); // boundary is not at beginning of a line
+                continue;
             }
-            return adjustBuf(chunkSize, len - chunkSize);
-        }
-        // Found boundary.
-        // Is it at the start of a line ?
-        int chunkLen = start;
-        if (bol && start == 0) {
-            // nothing to do
-        } else if (start > 0 && (buf[start - 1] == '\n' || buf[start - 1] == '\r')) {
-            --chunkLen;
-            if (buf[start - 1] == '\n' && start > 1 && buf[start - 2] == '\r') {
-                --chunkLen;
+
+            if (start + bl + 1 < len && buf[start + bl] == '-' && buf[start + bl + 1] == '-') {
+                state = STATE.END_PART;
+                done = true;
+                return adjustBuf(chunkLen, 0);
             }
-        } else {
-            return adjustBuf(start + 1, len - start - 1); // boundary is not at beginning of a line
-        }
 
-        if (start + bl + 1 < len && buf[start + bl] == '-' && buf[start + bl + 1] == '-') {
-            state = STATE.END_PART;
-            done = true;
-            return adjustBuf(chunkLen, 0);
-        }
+            // Consider all the whitespace in boundary+whitespace+"\r\n"
+            int lwsp = 0;
+            for (int i = start + bl; i < len && (buf[i] == ' ' || buf[i] == '\t'); i++) {
+                ++lwsp;
+            }
 
-        // Consider all the whitespace in boundary+whitespace+"\r\n"
-        int lwsp = 0;
-        for (int i = start + bl; i < len && (buf[i] == ' ' || buf[i] == '\t'); i++) {
-            ++lwsp;
+            // Check for \n or \r\n in boundary+whitespace+"\n" or boundary+whitespace+"\r\n"
+            if (start + bl + lwsp < len && buf[start + bl + lwsp] == '\n') {
+                state = STATE.END_PART;
+                return adjustBuf(chunkLen, len - start - bl - lwsp - 1);
+            } else if (start + bl + lwsp + 1 < len && buf[start + bl + lwsp] == '\r' && buf[start + bl + lwsp + 1] == '\n') {
+                state = STATE.END_PART;
+                return adjustBuf(chunkLen, len - start - bl - lwsp - 2);
+            } else if (start + bl + lwsp + 1 < len) {
+                start = matchBody(start + 1); // boundary string in a part data
+                continue;
+            } else if (eof) {
+                done = true;
+                throw new MIMEParsingException("Reached EOF, but there is no closing MIME boundary.");
+            }
+
+            // Some more data needed to determine if it is indeed a proper boundary
+            if (chunkLen == 0 && !eof && len < buf.length) {
+                return null; // push or low latency mode, wait for more bytes
+            }
+            return adjustBuf(chunkLen, len - chunkLen);
         }
 
-        // Check for \n or \r\n in boundary+whitespace+"\n" or boundary+whitespace+"\r\n"
-        if (start + bl + lwsp < len && buf[start + bl + lwsp] == '\n') {
-            state = STATE.END_PART;
-            return adjustBuf(chunkLen, len - start - bl - lwsp - 1);
-        } else if (start + bl + lwsp + 1 < len && buf[start + bl + lwsp] == '\r' && buf[start + bl + lwsp + 1] == '\n') {
-            state = STATE.END_PART;
-            return adjustBuf(chunkLen, len - start - bl - lwsp - 2);
-        } else if (start + bl + lwsp + 1 < len) {
-            return adjustBuf(chunkLen + 1, len - chunkLen - 1); // boundary string in a part data
-        } else if (eof) {
+        // No boundary is found
+        assert eof || push || lowLatency || len >= config.chunkSize;
+        if (eof) {
+            int chunkSize = len;
             done = true;
-            throw new MIMEParsingException("Reached EOF, but there is no closing MIME boundary.");
+            if (config.isEnablePartial()) {
+                // This is for partial message parsing.
+                isPartial = true;
+                state = STATE.END_PART;
+                // This is for truncating at 4 byte boundaries for base64 encoding, and don't care for other encoding formats.
+                final int remaining = len - chunkSize;
+                final int chunkSizeMod4 = chunkSize % moduloTruncateSize;
+                final int chunkSizeTruncated = chunkSize - chunkSizeMod4;
+                return adjustBuf(chunkSizeTruncated, remaining);
+            } else {
+                throw new MIMEParsingException("Reached EOF, but there is no closing MIME boundary.");
+            }
+        }
+        // Only the bytes that may begin a boundary with its line break need to be searched again after the next fill
+        final int noStart = len - matcher.partialMatch(buf, from, len);
+        if ((lowLatency ? noStart == 0 : noStart < config.chunkSize) && len < buf.length) {
+            // push mode, wait for more bytes to fill a chunk, or low latency mode with only a possible boundary start
+            scanFrom = noStart;
+            return null;
         }
+        final int chunkSize = Math.min(config.chunkSize, noStart);
+        scanFrom = noStart - chunkSize;
+        return adjustBuf(chunkSize, len - chunkSize);
+    }
 
-        // Some more data needed to determine if it is indeed a proper boundary
-        return adjustBuf(chunkLen, len - chunkLen);
+    /**
+     * Finds the next boundary in the current part's body.
+     *
+     * @param from start index in buf.
+     * @return -1 if there is no match or index where the match starts
+     */
+    private int matchBody(final int from) {
+        return lineAnchored ? matcher.indexOfLine(buf, from, len, bol) : match(buf, from, len);
     }
 
     /**
-     * No change from base class.
+     * Returns the next chunk of a message given in a buffer without copying its bytes to buf, if the bytes that fillBuf() would add have no
+     * delimiter. They are searched in place, and the chunk is a slice of the input as in adjustBuf(). buf is emptied and the input goes back to
+     * the end of the chunk, so the bytes after it are searched in place again. A window with a delimiter, and the last window of the input, are
+     * copied to buf and searched as usual, which is once per part.
      *
+     * @return a chunk of the part's content, or null to read it from buf.
+     */
+    private ByteBuffer sliceBody() {
+        final int base = input.position() - len;
+        final int end = base + buf.length;
+        if (end >= input.limit()) {
+            return null;
+        }
+        final int from = base + scanFrom;
+        if (matcher.indexOf(input, from, end) != -1) {
+            return null;
+        }
+        final int noStart = end - base - matcher.partialMatch(input, from, end);
+        final int chunkSize = Math.min(config.chunkSize, noStart);
+        scanFrom = noStart - chunkSize;
+        this.totalBytesRead += base + chunkSize - input.position();
+        if (this.totalBytesRead > maxInputStreamSize) {
+            throw new MIMEParsingException("MIMEParserYM total bytes read exceeds limit of 45 MB.");
+        }
+        final ByteBuffer chunk = input.duplicate();
+        ((Buffer) chunk).position(base);
+        ((Buffer) chunk).limit(base + chunkSize);
+        ((Buffer) input).position(base + chunkSize);
+        len = 0;
+        return chunk.slice();
+    }
+
+    /**
      * Returns a chunk from the original buffer. A new buffer is created with the remaining bytes.
      *
+     * When the message was given in a buffer the chunk is a slice of it and buf is reused. In sliding window mode the chunk is copied out into a
+     * pooled buffer, or a heap or direct buffer of exactly chunkSize bytes, and buf is reused, so no capacity sized buffer is allocated per chunk.
+     * Otherwise a small chunk is copied out into an array of its size and buf is reused, so that a few bytes of content do not keep a whole buffer
+     * alive. A large chunk keeps the buffer as in the base class.
+     *
      * @param chunkSize create a chunk with these many bytes
      * @param remaining bytes from the end of the buffer that need to be copied to the beginning of the new buffer
      * @return chunk
@@ -301,6 +652,28 @@ class MIMEParserPartial extends MIMEParser {
         assert chunkSize >= 0;
         assert remaining >= 0;
 
+        if (sliceInput) {
+            final ByteBuffer chunk = input.duplicate();
+            final int start = input.position() - len;
+            ((Buffer) chunk).position(start);
+            ((Buffer) chunk).limit(start + chunkSize);
+            shiftBuf(remaining);
+            return chunk.slice();
+        }
+        if (slidingWindow) {
+            final ByteBuffer chunk = allocateChunk(chunkSize);
+            chunk.put(buf, 0, chunkSize);
+            ((Buffer) chunk).flip();
+            shiftBuf(remaining);
+            return chunk;
+        }
+        // a buf grown for a header block is kept for the next ones
+        if (chunkSize < buf.length / DataHeadPartial.COALESCE_DIVISOR || buf.length > capacity) {
+            final ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOf(buf, chunkSize));
+            shiftBuf(remaining);
+            return chunk;
+        }
+
         byte[] temp = buf;
         // create a new buf and adjust it without this chunk
         createBuf(remaining);
@@ -310,6 +683,43 @@ class MIMEParserPartial extends MIMEParser {
         return ByteBuffer.wrap(temp, 0, chunkSize);
     }
 
+    /**
+     * Gets a buffer for a content chunk copied out of buf. Small chunks get a buffer of their size instead of a pooled one.
+     *
+     * @param chunkSize int.
+     * @return ByteBuffer with position 0.
+     */
+    private ByteBuffer allocateChunk(final int chunkSize) {
+        if (pool != null && chunkSize >= config.chunkSize / DataHeadPartial.COALESCE_DIVISOR) {
+            return pool.acquire(chunkSize);
+        }
+        return offHeap ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+    }
+
+    /**
+     * Drops everything but the remaining bytes from buf. Used for data that is not handed out as a chunk (preamble, headers), so in sliding window
+     * mode nothing is copied out or allocated.
+     *
+     * @param remaining bytes from the end of the buffer that need to be copied to the beginning of the buffer
+     */
+    private void discardBuf(final int remaining) {
+        if (slidingWindow) {
+            shiftBuf(remaining);
+        } else {
+            adjustBuf(len - remaining, remaining);
+        }
+    }
+
+    /**
+     * Moves the remaining bytes to the beginning of buf in place.
+     *
+     * @param remaining bytes from the end of the buffer that need to be copied to the beginning of the buffer
+     */
+    private void shiftBuf(final int remaining) {
+        System.arraycopy(buf, len - remaining, buf, 0, remaining);
+        len = remaining;
+    }
+
     /**
      * No change from base class.
      *
@@ -322,28 +732,42 @@ class MIMEParserPartial extends MIMEParser {
     /**
      * Skips the preamble to find the first attachment part.
      *
-     * No change from base class except logging removed.
+     * No change from base class except logging removed, skipped bytes are discarded instead of being returned as chunks, only the bytes that may
+     * begin a boundary are kept when none is found, and false matches are skipped within the same buffer. In low latency mode buf is refilled
+     * when more bytes are needed.
      *
+     * @return false if more bytes have to be pushed, which only happens in push mode.
      */
-    private void skipPreamble() {
+    private boolean skipPreamble() {
 
+        int from = 0;
+        boolean read = true;
         while (true) {
-            if (!eof) {
+            // in low latency mode only read when the bytes in buf are not enough
+            if (!eof && (read || push || !lowLatency)) {
                 fillBuf();
             }
-            int start = match(buf, 0, len); // matches boundary
+            read = true;
+            // buf is only short of full capacity before eof in push mode, when all pushed bytes are in it, and in low latency mode
+            final boolean needInput = !eof && len < buf.length;
+            int start = match(buf, from, len); // matches boundary
+            from = 0;
             if (start == -1) {
                 // No boundary is found
                 if (eof) {
                     throw new MIMEParsingException("Missing start boundary");
                 } else {
-                    adjustBuf(len - bl + 1, bl - 1);
+                    discardBuf(matcher.partialMatch(buf, 0, len));
+                    if (needInput && push) {
+                        return false;
+                    }
                     continue;
                 }
             }
 
             if (start > config.chunkSize) {
-                adjustBuf(start, len - start);
+                discardBuf(len - start);
+                read = false;
                 continue;
             }
             // Consider all the whitespace boundary+whitespace+"\r\n"
@@ -354,14 +778,27 @@ class MIMEParserPartial extends MIMEParser {
             // Check for \n or \r\n
             if (start + bl + lwsp < len && (buf[start + bl + lwsp] == '\n' || buf[start + bl + lwsp] == '\r')) {
                 if (buf[start + bl + lwsp] == '\n') {
-                    adjustBuf(start + bl + lwsp + 1, len - start - bl - lwsp - 1);
-                    break;
+                    discardBuf(len - start - bl - lwsp - 1);
+                    return true;
                 } else if (start + bl + lwsp + 1 < len && buf[start + bl + lwsp + 1] == '\n') {
-                    adjustBuf(start + bl + lwsp + 2, len - start - bl - lwsp - 2);
-                    break;
+                    discardBuf(len - start - bl - lwsp - 2);
+                    return true;
+                }
+            }
+            if (start + bl + lwsp + 1 < len) {
+                // not a boundary line, keep searching in this buffer
+                from = start + 1;
+                read = false;
+                continue;
+            }
+            if (needInput) {
+                discardBuf(len - start);
+                if (push) {
+                    return false;
                 }
+                continue;
             }
-            adjustBuf(start + 1, len - start - 1);
+            discardBuf(len - start - 1);
         }
     }
 
@@ -383,51 +820,7 @@ class MIMEParserPartial extends MIMEParser {
     }
 
     /**
-     * No change from base class. Boyer-Moore search method. Copied from java.util.regex.Pattern.java
-     *
-     * Pre calculates arrays needed to generate the bad character shift and the good suffix shift. Only the last seven bits are used to see if chars
-     * match; This keeps the tables small and covers the heavily used ASCII range, but occasionally results in an aliased match for the bad character
-     * shift.
-     */
-    private void compileBoundaryPattern() {
-        int i, j;
-
-        // Precalculate part of the bad character shift
-        // It is a table for where in the pattern each
-        // lower 7-bit value occurs
-        for (i = 0; i < bndbytes.length; i++) {
-            bcs[bndbytes[i] & 0x7F] = i + 1;
-        }
-
-        // Precalculate the good suffix shift
-        // i is the shift amount being considered
-        NEXT: for (i = bndbytes.length; i > 0; i--) {
-            // j is the beginning index of suffix being considered
-            for (j = bndbytes.length - 1; j >= i; j--) {
-                // Testing for good suffix
-                if (bndbytes[j] == bndbytes[j - i]) {
-                    // src[j..len] is a good suffix
-                    gss[j - 1] = i;
-                } else {
-                    // No match. The array has already been
-                    // filled up with correct values before.
-                    continue NEXT;
-                }
-            }
-            // This fills up the remaining of optoSft
-            // any suffix can not have larger shift amount
-            // then its sub-suffix. Why???
-            while (j > 0) {
-                gss[--j] = i;
-            }
-        }
-        // Set the guard value because of unicode compression
-        gss[bndbytes.length - 1] = 1;
-    }
-
-    /**
-     * Finds the boundary in the given buffer using Boyer-Moore algo. Copied from java.util.regex.Pattern.java Params changed to final and added
-     * copied variable because of final variables. No other change from base class.
+     * Finds the boundary in the given buffer with the {@link BoundaryMatcher}.
      *
      * @param mybuf boundary to be searched in this mybuf
      * @param off start index in mybuf
@@ -436,34 +829,32 @@ class MIMEParserPartial extends MIMEParser {
      * @return -1 if there is no match or index where the match starts
      */
     private int match(final byte[] mybuf, final int off, final int len) {
-        int last = len - bndbytes.length;
-        int offset = off;
-
-        // Loop over all possible match positions in text
-        NEXT: while (offset <= last) {
-            // Loop over pattern from right to left
-            for (int j = bndbytes.length - 1; j >= 0; j--) {
-                byte ch = mybuf[offset + j];
-                if (ch != bndbytes[j]) {
-                    // Shift search to the right by the maximum of the
-                    // bad character shift and the good suffix shift
-                    offset += Math.max(j + 1 - bcs[ch & 0x7F], gss[j]);
-                    continue NEXT;
-                }
-            }
-            // Entire pattern matched starting at off
-            return offset;
-        }
-        return -1;
+        return matcher.indexOf(mybuf, off, len);
     }
 
     /**
-     * Adds max bytes read from InputStream behavior. No change from base class.
+     * Adds max bytes read from InputStream behavior. No change from base class, except in push mode only the pushed bytes are copied, and in low
+     * latency mode only one read is done.
      *
      * Fills the remaining buf to the full capacity
      */
     private void fillBuf() {
         assert !eof;
+        if (push) {
+            final int read = input == null ? 0 : Math.min(input.remaining(), buf.length - len);
+            if (read > 0) {
+                input.get(buf, len, read);
+                len += read;
+                this.totalBytesRead += read;
+                if (this.totalBytesRead > maxInputStreamSize) {
+                    throw new MIMEParsingException("MIMEParserYM total bytes read exceeds limit of 45 MB.");
+                }
+            }
+            if (endOfInput && (input == null || !input.hasRemaining())) {
+                eof = true;
+            }
+            return;
+        }
         while (len < buf.length) {
             int read;
             try {
@@ -490,74 +881,28 @@ class MIMEParserPartial extends MIMEParser {
                 if (this.totalBytesRead > maxInputStreamSize) {
                     throw new MIMEParsingException("MIMEParserYM total bytes read exceeds limit of 45 MB.");
                 }
+                if (lowLatency) {
+                    break;
+                }
             }
         }
     }
 
     /**
-     * No change from base class.
+     * Grows buf for a header block that does not fit. The base class doubled buf, this grows it by half, up to the max header block size of the
+     * config. The grown buf is kept for the rest of the message, so the next large header blocks do not grow it again.
      */
-    private void doubleBuf() {
-        byte[] temp = new byte[2 * len];
+    private void growBuf() {
+        final int max = config.getMaxHeaderBlockSize();
+        if (len >= max) {
+            throw new MIMEParsingException("Header block exceeds limit of " + max + " bytes");
+        }
+        final int size = Math.max(Math.min(len + (len >> 1), max), len + 1);
+        final byte[] temp = new byte[size];
         System.arraycopy(buf, 0, temp, 0, len);
         buf = temp;
         if (!eof) {
             fillBuf();
         }
     }
-
-    /**
-     * No change from base class.
-     *
-     * @author wayneng
-     *
-     */
-    class LineInputStream extends MIMEParser.LineInputStream {
-        /** No change from base class. */
-        private int offset;
-
-        /**
-         * No change from base class.
-         *
-         * Read a line containing only ASCII characters from the input stream. A line is terminated by a CR or NL or CR-NL sequence. A common error is
-         * a CR-CR-NL sequence, which will also terminate a line. The line terminator is not returned as part of the returned String. Returns null if
-         * no data is available.
-         * <p>
-         *
-         * This class is similar to the deprecated <code>DataInputStream.readLine()</code>
-         */
-        @Override
-        public String readLine() throws IOException {
-
-            int hdrLen = 0;
-            int lwsp = 0;
-            while (offset + hdrLen < len) {
-                if (buf[offset + hdrLen] == '\n') {
-                    lwsp = 1;
-                    break;
-                }
-                if (offset + hdrLen + 1 == len) {
-                    doubleBuf();
-                }
-                if (offset + hdrLen + 1 >= len) { // No more data in the stream
-                    assert eof;
-                    return null;
-                }
-                if (buf[offset + hdrLen] == '\r' && buf[offset + hdrLen + 1] == '\n') {
-                    lwsp = 2;
-                    break;
-                }
-                ++hdrLen;
-            }
-            if (hdrLen == 0) {
-                adjustBuf(offset + lwsp, len - offset - lwsp);
-                return null;
-            }
-
-            String hdr = new String(buf, offset, hdrLen, HEADER_ENCODING);
-            offset += hdrLen + lwsp;
-            return hdr;
-        }
-
-    }
 }
@@ -1,8 +1,13 @@
 package org.jvnet.mimepull;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 /**
@@ -15,8 +20,8 @@ public class MIMEPartPartial extends MIMEPart {
 
     /** No change from base class. */
     private volatile boolean closed;
-    /** No change from base class. */
-    private volatile InternetHeaders headers;
+    /** Headers decoded on lookup, instead of the InternetHeaders of the base class. */
+    private volatile IndexedHeaders headers;
     /** No change from base class. */
     private volatile String contentId;
     /** No change from base class. */
@@ -25,12 +30,18 @@ public class MIMEPartPartial extends MIMEPart {
     private String contentTransferEncoding;
     /** No change from base class. */
     private volatile boolean isPartial;
+    /** Content-Type parsed on the first call of getParsedContentType(). */
+    private volatile ContentType parsedContentType;
+    /** Content-Disposition parsed on the first call of getContentDisposition(), null if the part has none. */
+    private volatile ContentDisposition contentDisposition;
+    /** true once contentDisposition was looked up. */
+    private volatile boolean dispositionParsed;
 
     // volatile boolean parsed; // part is parsed or not
     /** No change from base class. */
     final MIMEMessagePartial msg;
-    /** No change from base class. */
-    private final DataHead dataHead;
+    /** Customized DataHead, the base class one is final. */
+    private final DataHeadPartial dataHead;
 
     /** No change from base class. */
     private final Object lock = new Object();
@@ -43,7 +54,7 @@ public class MIMEPartPartial extends MIMEPart {
     MIMEPartPartial(final MIMEMessagePartial msg) {
         super(msg);
         this.msg = msg;
-        this.dataHead = new DataHead(this);
+        this.dataHead = new DataHeadPartial(this, msg.getConfigYM());
     }
 
     /**
@@ -124,6 +135,43 @@ public class MIMEPartPartial extends MIMEPart {
         dataHead.moveTo(f);
     }
 
+    /**
+     * Writes the content of the part to a channel, for example to forward it to a socket or a file. Content in the spill file goes to the channel
+     * with FileChannel.transferTo(), without being copied through the heap, and content in memory with gathering writes. Content with a
+     * base64, quoted-printable or uuencode Content-Transfer-Encoding is decoded, and copied through a buffer as read() would.
+     *
+     * Parses the rest of the part first. The content can still be read after this, unless readOnce() was called before.
+     *
+     * @param target WritableByteChannel, in blocking mode. It is not closed.
+     * @return bytes written.
+     * @throws IOException if writing fails.
+     * @throws IllegalBlockingModeException if target is a channel in non-blocking mode.
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException {
+        if (target instanceof SelectableChannel && !((SelectableChannel) target).isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        final String encoding = getContentTransferEncoding();
+        if (!"binary".equalsIgnoreCase(encoding) && !"7bit".equalsIgnoreCase(encoding) && !"8bit".equalsIgnoreCase(encoding)) {
+            long written = 0;
+            try (InputStream is = read()) {
+                if (is == null) {
+                    throw new IOException("Unknown Content-Transfer-Encoding: " + encoding);
+                }
+                final ByteBuffer buf = ByteBuffer.allocate(msg.getConfigYM().getChunkSize());
+                int n;
+                while ((n = is.read(buf.array())) != -1) {
+                    ((Buffer) buf).clear().limit(n);
+                    while (buf.hasRemaining()) {
+                        written += target.write(buf);
+                    }
+                }
+            }
+            return written;
+        }
+        return dataHead.transferTo(target);
+    }
+
     /**
      * No change from base class.
      *
@@ -214,22 +262,60 @@ public class MIMEPartPartial extends MIMEPart {
     }
 
     /**
-     * No change from base class.
+     * No change from base class, except for the type of the headers.
      *
      * Callback to set headers
      *
      * @param headers MIME headers for the part
      */
-    @Override
-    void setHeaders(final InternetHeaders headers) {
+    void setHeaders(final IndexedHeaders headers) {
         this.headers = headers;
-        List<String> ct = getHeader("Content-Type");
+        List<String> ct = getHeader(HeaderNames.CONTENT_TYPE);
         this.contentType = (ct == null) ? "application/octet-stream" : ct.get(0);
         // this.contentType = (ct == null) ? "" : ct.get(0);
-        List<String> cte = getHeader("Content-Transfer-Encoding");
+        List<String> cte = getHeader(HeaderNames.CONTENT_TRANSFER_ENCODING);
         this.contentTransferEncoding = (cte == null) ? "binary" : cte.get(0);
     }
 
+    /**
+     * Gets the Content-Type of the part, parsed once, so its parameters can be looked up as often as needed.
+     *
+     * @return ContentType, of "application/octet-stream" if the part has no Content-Type header.
+     */
+    public ContentType getParsedContentType() {
+        ContentType parsed = parsedContentType;
+        if (parsed == null) {
+            parsed = ContentType.parse(getContentType());
+            parsedContentType = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * Gets the Content-Disposition of the part, parsed once, for example for the field name and file name of multipart/form-data.
+     *
+     * @return ContentDisposition, or null if the part has no Content-Disposition header.
+     */
+    public ContentDisposition getContentDisposition() {
+        if (!dispositionParsed) {
+            final List<String> cd = getHeader(HeaderNames.CONTENT_DISPOSITION);
+            contentDisposition = cd == null ? null : ContentDisposition.parse(cd.get(0));
+            dispositionParsed = true;
+        }
+        return contentDisposition;
+    }
+
+    /**
+     * Gets the raw header lines, folded headers have their lines joined with "\r\n".
+     *
+     * @return List of String.
+     */
+    List<String> getHeaderLines() {
+        getHeaders();
+        assert headers != null;
+        return headers.getLines();
+    }
+
     /**
      * Callback to set contentPartial.
      *
@@ -307,6 +393,24 @@ public class MIMEPartPartial extends MIMEPart {
         return closed;
     }
 
+    /**
+     * Gets if the whole content of this part is parsed. In push mode the content can be read without blocking once this is true.
+     *
+     * @return boolean.
+     */
+    public boolean isParsed() {
+        return parsed;
+    }
+
+    /**
+     * Gets the content storage of this part.
+     *
+     * @return DataHeadPartial.
+     */
+    DataHeadPartial getDataHead() {
+        return dataHead;
+    }
+
     /**
      * No change from base class.
      */
@@ -0,0 +1,162 @@
+package org.jvnet.mimepull;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Customized from MemoryData. Keeps the Part's partial content data in memory. Whether the next chunk is kept in memory is decided by
+ * {@link DataHeadPartial}, which reads the threshold through MIMEConfigYM, since the base class reads the shadowed MIMEConfig field, and writes
+ * each chunk with its own size when spilling to a file.
+ *
+ * A coalescing instance has spare room that small chunks are appended to, see {@link DataHeadPartial#addBody(ByteBuffer)}. Only the parsing
+ * thread appends, and readers pick up the new size through {@link #read()}.
+ *
+ * @author Kohsuke Kawaguchi
+ * @author Jitendra Kotamraju
+ */
+final class MemoryDataPartial implements DataPartial {
+    /** No change from base class except it is a ByteBuffer. Only the first len bytes are content. */
+    private final ByteBuffer data;
+    /** No change from base class except it grows for a coalescing instance. */
+    private volatile int len;
+    /** No change from base class. */
+    private final MIMEConfigYM config;
+    /** true if small chunks can be appended. */
+    private final boolean coalescing;
+    /** Capacity of the buffer the data is a view of, the memory this chunk keeps alive. */
+    private final int retained;
+
+    /**
+     * No change from base class except the buffer does not need to start at array offset 0.
+     *
+     * @param buf ByteBuffer.
+     * @param config MIMEConfigYM.
+     */
+    MemoryDataPartial(final ByteBuffer buf, final MIMEConfigYM config) {
+        data = buf.slice();
+        len = data.limit();
+        this.config = config;
+        this.coalescing = false;
+        this.retained = buf.capacity();
+    }
+
+    /**
+     * Constructor for an empty coalescing instance.
+     *
+     * @param capacity int.
+     * @param config MIMEConfigYM.
+     */
+    private MemoryDataPartial(final int capacity, final MIMEConfigYM config) {
+        data = config.isOffHeap() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        len = 0;
+        this.config = config;
+        this.coalescing = true;
+        this.retained = capacity;
+    }
+
+    /**
+     * Creates an empty instance that small chunks can be appended to.
+     *
+     * @param capacity int.
+     * @param config MIMEConfigYM.
+     * @return MemoryDataPartial.
+     */
+    static MemoryDataPartial coalescing(final int capacity, final MIMEConfigYM config) {
+        return new MemoryDataPartial(capacity, config);
+    }
+
+    /**
+     * Checks if this is a coalescing instance with room for a small chunk.
+     *
+     * @param size of the chunk.
+     * @return boolean.
+     */
+    boolean hasRoom(final int size) {
+        return coalescing && data.capacity() - len >= size;
+    }
+
+    /**
+     * Appends a small chunk if this is a coalescing instance with enough room left.
+     *
+     * @param buf ByteBuffer, its position is not changed.
+     * @return false if nothing was appended.
+     */
+    boolean append(final ByteBuffer buf) {
+        if (!hasRoom(buf.remaining())) {
+            return false;
+        }
+        final ByteBuffer dst = data.duplicate();
+        ((Buffer) dst).position(len);
+        dst.put(buf.duplicate());
+        len = dst.position();
+        return true;
+    }
+
+    /**
+     * Gets a copy without the unused room of a coalescing instance, or this if there is little to gain.
+     *
+     * @return MemoryDataPartial.
+     */
+    MemoryDataPartial trimmed() {
+        if (!coalescing || data.capacity() - len < len) {
+            return this;
+        }
+        final ByteBuffer exact = config.isOffHeap() ? ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+        exact.put(read());
+        ((Buffer) exact).flip();
+        return new MemoryDataPartial(exact, config);
+    }
+
+    /**
+     * Gets the memory held by this chunk: the whole buffer it is a view of, which can be larger than the content.
+     *
+     * @return int.
+     */
+    int capacity() {
+        return retained;
+    }
+
+    /**
+     * No change from base class.
+     */
+    @Override
+    public int size() {
+        return len;
+    }
+
+    /**
+     * Returns a view of the data.
+     */
+    @Override
+    public ByteBuffer read() {
+        final ByteBuffer view = data.duplicate();
+        ((Buffer) view).limit(len);
+        return view;
+    }
+
+    /**
+     * No change from base class except direct buffers are written without a copy.
+     */
+    @Override
+    public long writeTo(final SpillFile file) {
+        return file.write(read());
+    }
+
+    /**
+     * Mostly no change from base class. The part is spilled when the data head did not admit the chunk to memory, because the part reached the
+     * memory threshold or the memory governor has no room for it.
+     *
+     * @param dataHead DataHeadPartial.
+     * @param buf ByteBuffer.
+     * @return DataPartial.
+     */
+    @Override
+    public DataPartial createNext(final DataHeadPartial dataHead, final ByteBuffer buf) {
+        if (!dataHead.admitted) {
+            dataHead.spill(buf);
+            return new FileDataPartial(dataHead.dataFile, buf, dataHead);
+        } else {
+            return new MemoryDataPartial(buf, config);
+        }
+    }
+}
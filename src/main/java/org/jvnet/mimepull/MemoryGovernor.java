@@ -0,0 +1,232 @@
+package org.jvnet.mimepull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide budget for the part content kept in memory. The memory threshold of {@link MIMEConfigYM} is per part, so many messages parsed at
+ * the same time can together keep far more in memory than any threshold suggests. Configs that share a governor, see
+ * {@link MIMEConfigYM#setMemoryGovernor(MemoryGovernor)}, charge every chunk they keep in memory to it, and give the bytes back when the chunk is
+ * spilled to disk, read with readOnce(), or its part is closed.
+ *
+ * When a chunk does not fit in the budget, the policy decides: {@link Policy#SPILL} writes the part to disk right away, {@link Policy#WAIT}
+ * first waits for other parts to give memory back, and spills if none was given back in time. Parts of a config without a temp file, whose
+ * memory threshold is -1, cannot spill, so after waiting they are kept in memory anyway and only counted.
+ *
+ * Parts that are not closed keep their bytes charged, so messages must be closed.
+ */
+public class MemoryGovernor {
+
+    /**
+     * What happens to a chunk that does not fit in the budget.
+     */
+    public enum Policy {
+        /** The part is spilled to disk. */
+        SPILL,
+        /** The parsing thread waits for memory to be given back, up to the max wait, then the part is spilled. */
+        WAIT
+    }
+
+    /** The budget in bytes. */
+    private final long budget;
+    /** The policy over the budget. */
+    private final Policy policy;
+    /** Max wait in nanoseconds for the WAIT policy. */
+    private final long maxWaitNanos;
+    /** Bytes charged. */
+    private final AtomicLong used = new AtomicLong();
+    /** Highest value of used. */
+    private final AtomicLong peak = new AtomicLong();
+    /** Number of chunks spilled because they did not fit. */
+    private final AtomicLong forcedSpills = new AtomicLong();
+    /** Number of chunks that waited for memory. */
+    private final AtomicLong waits = new AtomicLong();
+    /** Number of threads waiting for memory. Guarded by this. */
+    private int waiting;
+
+    /**
+     * Constructor for a governor that spills what does not fit.
+     *
+     * @param budget in bytes.
+     */
+    public MemoryGovernor(final long budget) {
+        this(budget, Policy.SPILL, 0L);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param budget in bytes.
+     * @param policy what happens to a chunk that does not fit.
+     * @param maxWaitMillis how long the WAIT policy waits for memory before spilling.
+     */
+    public MemoryGovernor(final long budget, final Policy policy, final long maxWaitMillis) {
+        if (budget < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Negative budget or max wait");
+        }
+        this.budget = budget;
+        this.policy = policy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Charges a chunk that is to be kept in memory.
+     *
+     * @param bytes size of the chunk.
+     * @param canSpill false if the part cannot be spilled, the chunk is then charged in any case.
+     * @return false if the chunk has to be spilled, nothing is charged then.
+     */
+    boolean acquire(final long bytes, final boolean canSpill) {
+        if (tryAcquire(bytes)) {
+            return true;
+        }
+        if (policy == Policy.WAIT && awaitRoom(bytes)) {
+            return true;
+        }
+        if (canSpill) {
+            forcedSpills.incrementAndGet();
+            return false;
+        }
+        charge(bytes);
+        return true;
+    }
+
+    /**
+     * Gives back the bytes of chunks that were spilled, consumed or closed.
+     *
+     * @param bytes long.
+     */
+    void release(final long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        used.addAndGet(-bytes);
+        synchronized (this) {
+            if (waiting > 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Charges a chunk if it fits.
+     *
+     * @param bytes long.
+     * @return false if it does not fit.
+     */
+    private boolean tryAcquire(final long bytes) {
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > budget) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        updatePeak(current + bytes);
+        return true;
+    }
+
+    /**
+     * Charges a chunk whether it fits or not.
+     *
+     * @param bytes long.
+     */
+    private void charge(final long bytes) {
+        updatePeak(used.addAndGet(bytes));
+    }
+
+    /**
+     * Waits for memory to be given back until the chunk fits.
+     *
+     * @param bytes long.
+     * @return false if it still does not fit after the max wait.
+     */
+    private boolean awaitRoom(final long bytes) {
+        waits.incrementAndGet();
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        synchronized (this) {
+            waiting++;
+            try {
+                while (!tryAcquire(bytes)) {
+                    final long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    /**
+     * Keeps the highest usage.
+     *
+     * @param value long.
+     */
+    private void updatePeak(final long value) {
+        long current;
+        while (value > (current = peak.get()) && !peak.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Gets the budget.
+     *
+     * @return bytes.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets the policy.
+     *
+     * @return Policy.
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the bytes of part content currently kept in memory by all configs of this governor.
+     *
+     * @return bytes.
+     */
+    public long getUsedBytes() {
+        return used.get();
+    }
+
+    /**
+     * Gets the highest usage so far.
+     *
+     * @return bytes.
+     */
+    public long getPeakBytes() {
+        return peak.get();
+    }
+
+    /**
+     * Gets the number of chunks that were spilled because they did not fit in the budget.
+     *
+     * @return long.
+     */
+    public long getForcedSpillCount() {
+        return forcedSpills.get();
+    }
+
+    /**
+     * Gets the number of chunks that waited for memory.
+     *
+     * @return long.
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+}
@@ -0,0 +1,236 @@
+package org.jvnet.mimepull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads an InputStream ahead on another thread, so that reading the next bytes overlaps with parsing the current ones. Two buffers are used: the
+ * reader thread fills one while the parser copies from the other.
+ *
+ * The reader thread fills a buffer as far as the stream has bytes available without blocking, but hands it over after the first read that
+ * returns something, so a slow stream is not held back until a buffer is full.
+ */
+final class ReadAheadInputStream extends InputStream implements Runnable {
+
+    /** Number of buffers, one is filled while the other is read. */
+    private static final int BUFFERS = 2;
+
+    /** Stream that is read ahead. */
+    private final InputStream in;
+    /** Buffers the reader thread can fill. */
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BUFFERS);
+    /** Filled buffers, followed by the end of the stream or its error. */
+    private final BlockingQueue<Filled> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+    /** Buffer being read, null if none. */
+    private Filled current;
+    /** Read position in current. */
+    private int pos;
+    /** true once the end of the stream was returned. */
+    private boolean eof;
+    /** true once closed. */
+    private boolean closed;
+    /** true once the reader thread has to stop. */
+    private volatile boolean stopped;
+    /** Reader thread while it runs. Guarded by this. */
+    private Thread worker;
+
+    /**
+     * Constructor.
+     *
+     * @param in InputStream.
+     * @param size size of each buffer.
+     */
+    private ReadAheadInputStream(final InputStream in, final int size) {
+        this.in = in;
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new byte[size]);
+        }
+    }
+
+    /**
+     * Starts reading a stream ahead.
+     *
+     * @param in InputStream.
+     * @param size size of each buffer.
+     * @param executor runs the reader thread for as long as the stream is read.
+     * @return ReadAheadInputStream.
+     */
+    static ReadAheadInputStream start(final InputStream in, final int size, final Executor executor) {
+        final ReadAheadInputStream readAhead = new ReadAheadInputStream(in, size);
+        executor.execute(readAhead);
+        return readAhead;
+    }
+
+    /**
+     * Reader thread. Fills free buffers until the end of the stream, an error, or {@link #stop()}.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            worker = Thread.currentThread();
+        }
+        try {
+            while (!stopped) {
+                final byte[] buf = free.take();
+                final Filled next;
+                try {
+                    next = fill(buf);
+                } catch (final IOException ioe) {
+                    filled.put(new Filled(null, -1, ioe));
+                    return;
+                } catch (final RuntimeException re) {
+                    // the parsing thread would wait forever otherwise
+                    filled.put(new Filled(null, -1, new IOException(re)));
+                    return;
+                }
+                filled.put(next);
+                if (next.len == -1) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            // stopped
+        } finally {
+            synchronized (this) {
+                worker = null;
+            }
+            // an interrupt from stop() must not reach the next task of the executor's thread
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Reads into a buffer. Blocks for the first bytes only, then reads what is available.
+     *
+     * @param buf byte array.
+     * @return the filled buffer, with length -1 at the end of the stream.
+     * @throws IOException from the stream.
+     */
+    private Filled fill(final byte[] buf) throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n == -1) {
+            return new Filled(null, -1, null);
+        }
+        while (n < buf.length && !stopped && in.available() > 0) {
+            final int read = in.read(buf, n, buf.length - n);
+            if (read == -1) {
+                break;
+            }
+            n += read;
+        }
+        return new Filled(buf, n, null);
+    }
+
+    /**
+     * Stops the reader thread. A read of the stream that is in progress is not interrupted unless the stream reacts to interrupts.
+     */
+    void stop() {
+        stopped = true;
+        synchronized (this) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (current == null || pos == current.len) {
+            if (current != null) {
+                free.add(current.buf);
+                current = null;
+            }
+            if (eof) {
+                return -1;
+            }
+            final Filled next = take();
+            if (next.error != null) {
+                eof = true;
+                throw next.error;
+            }
+            if (next.len == -1) {
+                eof = true;
+                return -1;
+            }
+            current = next;
+            pos = 0;
+        }
+        final int n = Math.min(len, current.len - pos);
+        System.arraycopy(current.buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Waits for the next filled buffer.
+     *
+     * @return Filled.
+     * @throws InterruptedIOException if the parsing thread is interrupted.
+     */
+    private Filled take() throws InterruptedIOException {
+        try {
+            return filled.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for read ahead");
+        }
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.len - pos;
+    }
+
+    /**
+     * Stops the reader thread and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            stop();
+            in.close();
+        }
+    }
+
+    /**
+     * A filled buffer, the end of the stream, or an error.
+     */
+    private static final class Filled {
+        /** Bytes read. */
+        final byte[] buf;
+        /** Number of bytes in buf, -1 at the end of the stream. */
+        final int len;
+        /** Error of the stream, or null. */
+        final IOException error;
+
+        /**
+         * Constructor.
+         *
+         * @param buf byte array.
+         * @param len int.
+         * @param error IOException.
+         */
+        Filled(final byte[] buf, final int len, final IOException error) {
+            this.buf = buf;
+            this.len = len;
+            this.error = error;
+        }
+    }
+}
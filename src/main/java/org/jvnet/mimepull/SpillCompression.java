@@ -0,0 +1,43 @@
+package org.jvnet.mimepull;
+
+/**
+ * Which spilled parts are compressed in the spill file, see {@link MIMEConfigYM#setSpillCompression(SpillCompression)}. Compressed parts are
+ * decompressed when they are read, so read() and readOnce() return the same content either way.
+ *
+ * Every chunk is deflated on its own, at the fastest level, and is stored as it is if that does not make it smaller. Parts are chosen when they
+ * are spilled, so parts kept in memory are never compressed.
+ */
+public enum SpillCompression {
+
+    /** Nothing is compressed. */
+    NONE,
+    /** Parts with a text-like Content-Type are compressed: text/*, JSON, XML, CSV, JavaScript and form data. */
+    CONTENT_TYPE,
+    /** Parts with a text-like Content-Type, and parts whose first chunk compresses well. */
+    PROBE;
+
+    /** Sub types that are text, as in application/json. */
+    private static final String[] TEXT_SUB_TYPES = {"json", "xml", "csv", "javascript", "x-www-form-urlencoded", "x-ndjson", "yaml"};
+
+    /**
+     * Checks if a Content-Type is text-like.
+     *
+     * @param type ContentType.
+     * @return boolean.
+     */
+    static boolean isTextLike(final ContentType type) {
+        if ("text".equals(type.getPrimaryType())) {
+            return true;
+        }
+        final String subType = type.getSubType();
+        if (subType.endsWith("+json") || subType.endsWith("+xml")) {
+            return true;
+        }
+        for (final String text : TEXT_SUB_TYPES) {
+            if (text.equals(subType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
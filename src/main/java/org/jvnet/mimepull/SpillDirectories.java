@@ -0,0 +1,325 @@
+package org.jvnet.mimepull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directories the spill files of messages are spread over, usually one per disk, so that spilling uses the bandwidth of all of them.
+ * Configured through {@link MIMEConfigYM#setSpillDirectories(SpillDirectories)} and usually shared by all messages. Each message has one
+ * spill file, see {@link SpillFile}, so the directory is chosen once per message.
+ *
+ * {@link Placement#ROUND_ROBIN} takes the directories in turn. {@link Placement#LEAST_LOADED} takes the directory with the most usable space
+ * left once the bytes of its open spill files are taken off, so a disk that is filling up or busy with large messages gets fewer new ones.
+ *
+ * A directory where a spill file cannot be created or written is unhealthy, and is skipped for new spill files until the retry delay is over.
+ * If no directory is healthy, all of them are tried.
+ */
+public class SpillDirectories {
+
+    /**
+     * How the directory of a new spill file is chosen.
+     */
+    public enum Placement {
+        /** The directories in turn. */
+        ROUND_ROBIN,
+        /** The directory with the most usable space less the bytes of its open spill files. */
+        LEAST_LOADED
+    }
+
+    /**
+     * Counters of one directory.
+     */
+    public static final class Directory {
+        /** The directory. */
+        private final File dir;
+        /** Number of spill files created. */
+        private final AtomicLong files = new AtomicLong();
+        /** Bytes written to spill files, deleted ones included. */
+        private final AtomicLong spilledBytes = new AtomicLong();
+        /** Bytes of the spill files not deleted yet. */
+        private final AtomicLong openBytes = new AtomicLong();
+        /** Number of failures to create or write a spill file. */
+        private final AtomicLong failures = new AtomicLong();
+        /** System.nanoTime() until which the directory is skipped, 0 if it is healthy. */
+        private volatile long unhealthyUntil;
+
+        /**
+         * Constructor.
+         *
+         * @param dir File.
+         */
+        private Directory(final File dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * Counts bytes given out in a spill file of this directory.
+         *
+         * @param bytes long.
+         */
+        void reserved(final long bytes) {
+            spilledBytes.addAndGet(bytes);
+            openBytes.addAndGet(bytes);
+        }
+
+        /**
+         * Counts a spill file of this directory that was deleted.
+         *
+         * @param bytes size of the file.
+         */
+        void deleted(final long bytes) {
+            openBytes.addAndGet(-bytes);
+        }
+
+        /**
+         * Marks the directory unhealthy after a failure.
+         *
+         * @param retryNanos how long the directory is skipped.
+         */
+        private void failed(final long retryNanos) {
+            failures.incrementAndGet();
+            unhealthyUntil = System.nanoTime() + retryNanos;
+        }
+
+        /**
+         * Gets the directory.
+         *
+         * @return File.
+         */
+        public File getDir() {
+            return dir;
+        }
+
+        /**
+         * Gets the number of spill files created.
+         *
+         * @return long.
+         */
+        public long getFileCount() {
+            return files.get();
+        }
+
+        /**
+         * Gets the bytes written to spill files of this directory so far.
+         *
+         * @return long.
+         */
+        public long getSpilledBytes() {
+            return spilledBytes.get();
+        }
+
+        /**
+         * Gets the bytes of the spill files that are not deleted yet.
+         *
+         * @return long.
+         */
+        public long getOpenBytes() {
+            return openBytes.get();
+        }
+
+        /**
+         * Gets the number of failures to create or write a spill file.
+         *
+         * @return long.
+         */
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        /**
+         * Checks if the directory is used for new spill files.
+         *
+         * @return false while it is skipped after a failure.
+         */
+        public boolean isHealthy() {
+            final long until = unhealthyUntil;
+            return until == 0 || System.nanoTime() - until >= 0;
+        }
+
+        /**
+         * Gets the load for {@link Placement#LEAST_LOADED}.
+         *
+         * @return usable space less the bytes of the open spill files.
+         */
+        private long room() {
+            return dir.getUsableSpace() - openBytes.get();
+        }
+    }
+
+    /** The directories. */
+    private final List<Directory> dirs;
+    /** How a directory is chosen. */
+    private final Placement placement;
+    /** How long a directory is skipped after a failure, in nanoseconds. */
+    private final long retryNanos;
+    /** Next directory for ROUND_ROBIN. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Constructor, a failed directory is skipped for 30 seconds.
+     *
+     * @param dirs the directories, created if they do not exist.
+     * @param placement how a directory is chosen.
+     */
+    public SpillDirectories(final List<File> dirs, final Placement placement) {
+        this(dirs, placement, 30000L);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dirs the directories, created if they do not exist.
+     * @param placement how a directory is chosen.
+     * @param retryMillis how long a directory is skipped after a failure.
+     */
+    public SpillDirectories(final List<File> dirs, final Placement placement, final long retryMillis) {
+        if (dirs.isEmpty() || retryMillis < 0) {
+            throw new IllegalArgumentException("No directories or negative retry delay");
+        }
+        final List<Directory> list = new ArrayList<>(dirs.size());
+        for (final File dir : dirs) {
+            list.add(new Directory(dir));
+        }
+        this.dirs = Collections.unmodifiableList(list);
+        this.placement = placement;
+        this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMillis);
+    }
+
+    /**
+     * Creates a spill file in the chosen directory, or in the next ones if that fails.
+     *
+     * @param prefix of the file name.
+     * @param suffix of the file name, can be null.
+     * @param created receives the directory of the file.
+     * @return File.
+     * @throws IOException the error of the last directory, if the file could not be created in any.
+     */
+    File createTempFile(final String prefix, final String suffix, final Directory[] created) throws IOException {
+        final int first = choose();
+        IOException error = null;
+        for (int i = 0; i < dirs.size(); i++) {
+            final Directory dir = dirs.get((first + i) % dirs.size());
+            if (i > 0 && !dir.isHealthy() && anyHealthy()) {
+                continue;
+            }
+            try {
+                if (!dir.dir.isDirectory() && !dir.dir.mkdirs() && !dir.dir.isDirectory()) {
+                    throw new IOException("Cannot create spill directory " + dir.dir);
+                }
+                final File file = TempFiles.createTempFile(prefix, suffix, dir.dir);
+                dir.files.incrementAndGet();
+                created[0] = dir;
+                return file;
+            } catch (final IOException e) {
+                dir.failed(retryNanos);
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    /**
+     * Checks that a spill file can be created in every directory, as {@link MIMEConfigYM#validate()} does for the temp dir. Directories where it
+     * cannot are marked unhealthy.
+     *
+     * @param prefix of the file name.
+     * @param suffix of the file name, can be null.
+     * @return true if a spill file can be created in at least one directory.
+     */
+    boolean validate(final String prefix, final String suffix) {
+        boolean usable = false;
+        for (final Directory dir : dirs) {
+            try {
+                if (!dir.dir.isDirectory() && !dir.dir.mkdirs() && !dir.dir.isDirectory()) {
+                    throw new IOException("Cannot create spill directory " + dir.dir);
+                }
+                final File file = File.createTempFile(prefix, suffix, dir.dir);
+                final boolean deleted = file.delete();
+                if (!deleted) {
+                    // logging goes here.
+                }
+                usable = true;
+            } catch (final Exception e) {
+                dir.failed(retryNanos);
+            }
+        }
+        return usable;
+    }
+
+    /**
+     * Marks a directory unhealthy after a spill file of it could not be written.
+     *
+     * @param dir Directory.
+     */
+    void failed(final Directory dir) {
+        dir.failed(retryNanos);
+    }
+
+    /**
+     * Chooses the directory of a new spill file among the healthy ones.
+     *
+     * @return index in dirs.
+     */
+    private int choose() {
+        if (placement == Placement.ROUND_ROBIN) {
+            for (int i = 0; i < dirs.size(); i++) {
+                final int index = Math.floorMod(next.getAndIncrement(), dirs.size());
+                if (dirs.get(index).isHealthy()) {
+                    return index;
+                }
+            }
+            return Math.floorMod(next.getAndIncrement(), dirs.size());
+        }
+        int best = -1;
+        long bestRoom = Long.MIN_VALUE;
+        for (int i = 0; i < dirs.size(); i++) {
+            final Directory dir = dirs.get(i);
+            if (dir.isHealthy()) {
+                final long room = dir.room();
+                if (best < 0 || room > bestRoom) {
+                    best = i;
+                    bestRoom = room;
+                }
+            }
+        }
+        return best < 0 ? 0 : best;
+    }
+
+    /**
+     * Checks if any directory is healthy.
+     *
+     * @return boolean.
+     */
+    private boolean anyHealthy() {
+        for (final Directory dir : dirs) {
+            if (dir.isHealthy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the counters of the directories.
+     *
+     * @return unmodifiable List, in the order of the constructor.
+     */
+    public List<Directory> getDirectories() {
+        return dirs;
+    }
+
+    /**
+     * Gets how a directory is chosen.
+     *
+     * @return Placement.
+     */
+    public Placement getPlacement() {
+        return placement;
+    }
+}
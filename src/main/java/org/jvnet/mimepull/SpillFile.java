@@ -0,0 +1,440 @@
+package org.jvnet.mimepull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One temp file for the content of all the spilled parts of a message, replacing the temp file per part of DataHead. Every spilled chunk gets
+ * an extent of the file, so the chunks of a part are its extent table, and since parts are parsed one after the other the extents of a part are
+ * next to each other. Chunks are written and read with positional FileChannel calls, so readers of one part do not wait for the parsing thread
+ * writing another.
+ *
+ * The file is created at the first spill of the message, and deleted once when the message is closed. Closing a part does not give back its
+ * extents. An owner that hands the parts out and does not close the message, like {@link MIMEMessageProcessor}, can instead have the file
+ * deleted once every spilled part is closed, see {@link #closeWhenUnused()}.
+ *
+ * With a {@link SpillWriter} in the config, the extent of a chunk is given out on the parsing thread and written on a writer thread, see
+ * {@link FileDataPartial}. A write that fails is kept, and reported to the parsing thread at the next spill.
+ *
+ * With {@link SpillDirectories} in the config, the file is created in one of them instead of the temp dir, and counted in its usage.
+ *
+ * Chunks of parts chosen for {@link SpillCompression} are deflated on the parsing thread with one Deflater per message, and inflated by the
+ * readers with Inflaters that are kept for the next read until the file is closed.
+ */
+final class SpillFile {
+
+    /** Max bytes of the first chunk of a part that are deflated to find if it is compressible. */
+    private static final int PROBE_SIZE = 4096;
+
+    /** Config of the message, for the temp file location. */
+    private final MIMEConfigYM config;
+    /** Writes the chunks in the background, null to write them on the parsing thread. */
+    private final SpillWriter writer;
+    /** When the file is forced to the disk. */
+    private final SpillWriter.Fsync fsync;
+    /** First failed background write. */
+    private volatile IOException failure;
+    /** The temp file, null until the first spill. Guarded by this. */
+    private File file;
+    /** Directory of the file when spill directories are configured, else null. Guarded by this. */
+    private SpillDirectories.Directory directory;
+    /** The channel of the temp file, null until the first spill. */
+    private volatile FileChannel channel;
+    /** End of the extents given out. Guarded by this. */
+    private long end;
+    /** true once closed. Guarded by this. */
+    private boolean closed;
+    /** Compresses chunks, null until the first one. Guarded by this. */
+    private Deflater deflater;
+    /** Inflaters not in use, reset, at most one per reader that ran at the same time. Guarded by this. */
+    private final ArrayDeque<Inflater> inflaters = new ArrayDeque<>();
+    /** Number of spilled parts not closed yet. Guarded by this. */
+    private int users;
+    /** true if the file is closed once users drops to 0. Guarded by this. */
+    private boolean closeWhenUnused;
+
+    /**
+     * Constructor, no file is created yet.
+     *
+     * @param config MIMEConfigYM.
+     */
+    SpillFile(final MIMEConfigYM config) {
+        this.config = config;
+        this.writer = config.getSpillWriter();
+        this.fsync = config.getSpillFsync();
+    }
+
+    /**
+     * Gets the background writer.
+     *
+     * @return SpillWriter, null if chunks are written on the parsing thread.
+     */
+    SpillWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Gets when the file is forced to the disk.
+     *
+     * @return Fsync.
+     */
+    SpillWriter.Fsync getFsync() {
+        return fsync;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a new extent.
+     *
+     * @param buf ByteBuffer, its position is not changed.
+     * @return position of the extent.
+     */
+    long write(final ByteBuffer buf) {
+        final long position = reserve(buf.remaining());
+        write(buf, position);
+        return position;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to an extent that was given out, and forces them to the disk if the fsync policy is CHUNK.
+     *
+     * @param buf ByteBuffer, its position is not changed.
+     * @param position of the extent.
+     */
+    void write(final ByteBuffer buf, final long position) {
+        final ByteBuffer src = buf.duplicate();
+        try {
+            long at = position;
+            while (src.hasRemaining()) {
+                at += channel.write(src, at);
+            }
+            if (fsync == SpillWriter.Fsync.CHUNK) {
+                channel.force(false);
+            }
+        } catch (final IOException ioe) {
+            writeFailed();
+            throw new MIMEParsingException(ioe);
+        }
+    }
+
+    /**
+     * Marks the spill directory of the file unhealthy after a failed write, unless the file was closed.
+     */
+    private synchronized void writeFailed() {
+        if (!closed && directory != null) {
+            config.getSpillDirectories().failed(directory);
+        }
+    }
+
+    /**
+     * Forces the file to the disk.
+     */
+    void force() {
+        try {
+            channel.force(false);
+        } catch (final IOException ioe) {
+            if (!isClosed()) {
+                throw new MIMEParsingException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Checks if the file was closed with the message.
+     *
+     * @return boolean.
+     */
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Keeps the error of a background write, unless the file was closed while the chunk was queued.
+     *
+     * @param error MIMEParsingException.
+     */
+    synchronized void failed(final MIMEParsingException error) {
+        if (!closed && failure == null) {
+            failure = error.getCause() instanceof IOException ? (IOException) error.getCause() : new IOException(error);
+        }
+    }
+
+    /**
+     * Deflates a chunk.
+     *
+     * @param buf ByteBuffer, its position is not changed.
+     * @return heap ByteBuffer with the compressed bytes, or buf if they are not fewer.
+     */
+    synchronized ByteBuffer deflate(final ByteBuffer buf) {
+        if (closed) {
+            throw new MIMEParsingException("The message is closed, its parts cannot be spilled");
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        final int len = buf.remaining();
+        final byte[] in;
+        final int off;
+        if (buf.hasArray()) {
+            in = buf.array();
+            off = buf.arrayOffset() + buf.position();
+        } else {
+            in = new byte[len];
+            buf.duplicate().get(in);
+            off = 0;
+        }
+        final byte[] out = new byte[len];
+        deflater.reset();
+        deflater.setInput(in, off, len);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < len) {
+            n += deflater.deflate(out, n, len - n);
+        }
+        if (!deflater.finished() || n >= len) {
+            return buf;
+        }
+        return ByteBuffer.wrap(out, 0, n);
+    }
+
+    /**
+     * Finds if a part compresses well by deflating the start of its first chunk.
+     *
+     * @param first ByteBuffer, its position is not changed.
+     * @return true if the start compresses to 3/4 of its size or less.
+     */
+    boolean compressible(final ByteBuffer first) {
+        final ByteBuffer sample = first.duplicate();
+        ((Buffer) sample).limit(sample.position() + Math.min(sample.remaining(), PROBE_SIZE));
+        return sample.hasRemaining() && deflate(sample).remaining() * 4 <= sample.remaining() * 3;
+    }
+
+    /**
+     * Inflates a chunk.
+     *
+     * @param stored heap ByteBuffer with the compressed bytes.
+     * @param length size of the chunk.
+     * @return heap ByteBuffer with position 0 and limit length.
+     */
+    ByteBuffer inflate(final ByteBuffer stored, final int length) {
+        final Inflater inflater = takeInflater();
+        try {
+            inflater.setInput(stored.array(), stored.arrayOffset() + stored.position(), stored.remaining());
+            final byte[] out = new byte[length];
+            int n = 0;
+            while (n < length) {
+                final int k = inflater.inflate(out, n, length - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new MIMEParsingException("Compressed chunk in the spill file is corrupt");
+                }
+                n += k;
+            }
+            return ByteBuffer.wrap(out);
+        } catch (final DataFormatException e) {
+            throw new MIMEParsingException(e);
+        } finally {
+            giveBack(inflater);
+        }
+    }
+
+    /**
+     * Takes an Inflater that is not in use, or creates one.
+     *
+     * @return Inflater.
+     */
+    private synchronized Inflater takeInflater() {
+        final Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    /**
+     * Keeps an Inflater for the next read, or ends it if the file is closed.
+     *
+     * @param inflater Inflater.
+     */
+    private synchronized void giveBack(final Inflater inflater) {
+        if (closed) {
+            inflater.end();
+        } else {
+            inflater.reset();
+            inflaters.push(inflater);
+        }
+    }
+
+    /**
+     * Reads an extent.
+     *
+     * @param position of the extent.
+     * @param length of the extent.
+     * @return heap ByteBuffer with position 0 and limit length.
+     */
+    ByteBuffer read(final long position, final int length) {
+        final ByteBuffer dst = ByteBuffer.allocate(length);
+        try {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position()) < 0) {
+                    throw new MIMEParsingException("Spill file ended before the extent at " + position);
+                }
+            }
+        } catch (final IOException ioe) {
+            throw new MIMEParsingException(ioe);
+        }
+        ((Buffer) dst).flip();
+        return dst;
+    }
+
+    /**
+     * Copies an extent to a channel without reading it into the heap. If FileChannel.transferTo() makes no progress the rest is copied through
+     * the heap.
+     *
+     * @param position of the extent.
+     * @param length of the extent.
+     * @param target WritableByteChannel, in blocking mode.
+     * @throws IOException if the copy fails, or the file ends before the extent.
+     */
+    void transferTo(final long position, final long length, final WritableByteChannel target) throws IOException {
+        long done = 0;
+        while (done < length) {
+            final long n = channel.transferTo(position + done, length - done, target);
+            if (n == 0) {
+                break;
+            }
+            done += n;
+        }
+        if (done < length && channel.size() < position + length) {
+            throw new IOException("Spill file ended before the extent at " + position);
+        }
+        while (done < length) {
+            final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length - done, config.getChunkSize()));
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + done + buf.position()) < 0) {
+                    throw new IOException("Spill file ended before the extent at " + position);
+                }
+            }
+            ((Buffer) buf).flip();
+            while (buf.hasRemaining()) {
+                done += target.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Gives out the next extent, and creates the file at the first call.
+     *
+     * @param length of the extent.
+     * @return position of the extent.
+     */
+    synchronized long reserve(final int length) {
+        if (closed) {
+            throw new MIMEParsingException("The message is closed, its parts cannot be spilled");
+        }
+        if (failure != null) {
+            throw new MIMEParsingException(failure);
+        }
+        if (channel == null) {
+            try {
+                final SpillDirectories dirs = config.getSpillDirectories();
+                if (dirs != null) {
+                    final SpillDirectories.Directory[] created = new SpillDirectories.Directory[1];
+                    file = dirs.createTempFile(config.getTempFilePrefix(), config.getTempFileSuffix(), created);
+                    directory = created[0];
+                } else {
+                    file = TempFiles.createTempFile(config.getTempFilePrefix(), config.getTempFileSuffix(), config.getTempDir());
+                }
+                // delete the temp file when VM exits as a last resort for file clean up
+                file.deleteOnExit();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (final IOException ioe) {
+                throw new MIMEParsingException(ioe);
+            }
+        }
+        final long position = end;
+        end += length;
+        if (directory != null) {
+            directory.reserved(length);
+        }
+        return position;
+    }
+
+    /**
+     * Gets the bytes written so far.
+     *
+     * @return long.
+     */
+    synchronized long size() {
+        return end;
+    }
+
+    /**
+     * Gets the temp file.
+     *
+     * @return File, null if nothing was spilled.
+     */
+    synchronized File getFile() {
+        return file;
+    }
+
+    /**
+     * Counts a part that spilled to the file.
+     */
+    synchronized void addUser() {
+        users++;
+    }
+
+    /**
+     * Called by a spilled part that is closed, closes the file if it was the last one and {@link #closeWhenUnused()} was called.
+     */
+    synchronized void removeUser() {
+        if (--users == 0 && closeWhenUnused) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the file once every spilled part is closed, now if there is none.
+     */
+    synchronized void closeWhenUnused() {
+        closeWhenUnused = true;
+        if (users == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes and deletes the file. Parts that were spilled cannot be read any more.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (deflater != null) {
+            deflater.end();
+        }
+        for (final Inflater inflater : inflaters) {
+            inflater.end();
+        }
+        inflaters.clear();
+        if (channel == null) {
+            return;
+        }
+        if (directory != null) {
+            directory.deleted(end);
+        }
+        try {
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        } catch (final IOException ioe) {
+            throw new MIMEParsingException(ioe);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.jvnet.mimepull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes spilled chunks to the spill files of messages on background threads, so that a slow disk does not stall the parsing thread. Configured
+ * through {@link MIMEConfigYM#setSpillWriter(SpillWriter)} and usually shared by all messages.
+ *
+ * A chunk that is queued keeps its buffer until it is written, and is read from the buffer until then. The queue is bounded: when it is full the
+ * parsing thread waits for room, which bounds the memory held by queued chunks and slows parsing down to the speed of the disk.
+ *
+ * The writer threads are daemon threads, and are stopped by {@link #close()}. Chunks queued after that are written on the parsing thread.
+ */
+public class SpillWriter {
+
+    /**
+     * When the spill file is forced to the disk.
+     */
+    public enum Fsync {
+        /** Never, the file is deleted when the message is closed. */
+        NONE,
+        /** Once all chunks of a part are written. */
+        PART,
+        /** After every chunk. */
+        CHUNK
+    }
+
+    /** Number of writers so far, for the thread names. */
+    private static final AtomicInteger WRITERS = new AtomicInteger();
+
+    /** The writer threads. */
+    private final ThreadPoolExecutor executor;
+    /** Number of chunks the parsing thread had to wait for room in the queue. */
+    private final AtomicLong waits = new AtomicLong();
+    /** Number of chunks written. */
+    private final AtomicLong written = new AtomicLong();
+    /** Number of chunks whose write failed. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param threads number of writer threads.
+     * @param queueCapacity max number of chunks waiting to be written.
+     */
+    public SpillWriter(final int threads, final int queueCapacity) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("threads and queueCapacity must be > 0");
+        }
+        final int id = WRITERS.incrementAndGet();
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = r -> {
+            final Thread t = new Thread(r, "mimepull-spill-" + id + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), factory,
+            (r, e) -> await(r, e.getQueue()));
+    }
+
+    /**
+     * Queues a write, waiting for room in the queue if it is full.
+     *
+     * @param write Runnable.
+     */
+    void submit(final Runnable write) {
+        if (executor.isShutdown()) {
+            write.run();
+            return;
+        }
+        executor.execute(write);
+    }
+
+    /**
+     * Waits for room in the queue, used when the executor rejects a write. Writes on the calling thread if the writer is closed or the thread is
+     * interrupted, the write is never dropped.
+     *
+     * @param write Runnable.
+     * @param queue the queue of the executor.
+     */
+    private void await(final Runnable write, final BlockingQueue<Runnable> queue) {
+        if (executor.isShutdown()) {
+            write.run();
+            return;
+        }
+        waits.incrementAndGet();
+        try {
+            queue.put(write);
+            // closed while waiting: the writer threads may be gone, so a write still queued is taken back
+            if (executor.isShutdown() && queue.remove(write)) {
+                write.run();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.run();
+        }
+    }
+
+    /**
+     * Called by a write that is done.
+     */
+    void written() {
+        written.incrementAndGet();
+    }
+
+    /**
+     * Called by a write that failed.
+     */
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of chunks waiting to be written.
+     *
+     * @return int.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Gets the number of chunks that had to wait for room in the queue.
+     *
+     * @return long.
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * Gets the number of chunks written.
+     *
+     * @return long.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Gets the number of chunks whose write failed.
+     *
+     * @return long.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Stops the writer threads once the queued chunks are written.
+     *
+     * @param timeoutMillis max wait for the queued chunks.
+     * @return false if chunks were still queued after the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean close(final long timeoutMillis) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the writer threads once the queued chunks are written, without waiting.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,580 @@
+package org.jvnet.mimepull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multipart upload that arrives in several requests, stored by {@link UploadSessionStore}. The bytes of each request are appended with
+ * {@link #append(ByteBuffer)}, and parsing continues from where the last request stopped, with a message resumed from a
+ * {@link MIMEParserCheckpoint}.
+ *
+ * The raw content of every part, still transfer encoded, is written to its own file as it is parsed. After each append the part files are
+ * forced to disk and the manifest is replaced atomically, so after a crash the session continues from the last append that returned. Part files
+ * are cut back to the length in the manifest when the session is resumed, so content written after the last manifest is not duplicated.
+ */
+public class UploadSession implements Closeable {
+
+    /** File name of the manifest. */
+    static final String MANIFEST = "manifest.ser";
+    /** File name the manifest is written to before it replaces the old one. */
+    private static final String MANIFEST_TMP = "manifest.tmp";
+    /** Prefix of the part file names, followed by the part index. */
+    private static final String PART_PREFIX = "part-";
+
+    /** The upload ID. */
+    private final String uploadId;
+    /** Directory of the session. */
+    private final Path dir;
+    /** Config of the parsed messages. */
+    private final MIMEConfigYM config;
+    /** State stored in the manifest. */
+    private Manifest manifest;
+    /** Message the bytes are pushed to, null until the next append, and after an error. */
+    private MIMEMessagePartial message;
+    /** Content streams of the parts that are not written completely yet, by part index. */
+    private final Map<Integer, InputStream> contents = new HashMap<>();
+    /** Open part files, by part index. */
+    private final Map<Integer, FileChannel> files = new HashMap<>();
+    /** true once closed. */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param uploadId String.
+     * @param dir Path.
+     * @param config MIMEConfigYM.
+     * @param manifest Manifest.
+     */
+    private UploadSession(final String uploadId, final Path dir, final MIMEConfigYM config, final Manifest manifest) {
+        this.uploadId = uploadId;
+        this.dir = dir;
+        this.config = config;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Creates a new session.
+     *
+     * @param uploadId String.
+     * @param dir directory of the session, created if it does not exist.
+     * @param boundary String.
+     * @param config MIMEConfigYM.
+     * @return UploadSession.
+     * @throws IOException if the directory or the manifest cannot be written.
+     */
+    static UploadSession create(final String uploadId, final Path dir, final String boundary, final MIMEConfigYM config) throws IOException {
+        Files.createDirectories(dir);
+        final UploadSession session = new UploadSession(uploadId, dir, config, new Manifest(boundary));
+        session.save();
+        return session;
+    }
+
+    /**
+     * Loads a stored session.
+     *
+     * @param uploadId String.
+     * @param dir directory of the session.
+     * @param config MIMEConfigYM.
+     * @return UploadSession.
+     * @throws IOException if the manifest cannot be read.
+     */
+    static UploadSession load(final String uploadId, final Path dir, final MIMEConfigYM config) throws IOException {
+        return new UploadSession(uploadId, dir, config, readManifest(uploadId, dir));
+    }
+
+    /**
+     * Reads the manifest of a session.
+     *
+     * @param uploadId String.
+     * @param dir directory of the session.
+     * @return Manifest.
+     * @throws IOException if the manifest cannot be read.
+     */
+    private static Manifest readManifest(final String uploadId, final Path dir) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(dir.resolve(MANIFEST)))) {
+            return (Manifest) in.readObject();
+        } catch (final ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid manifest of upload session " + uploadId, e);
+        }
+    }
+
+    /**
+     * Deletes the files of a session and its directory.
+     *
+     * @param dir directory of the session.
+     * @throws IOException if the files cannot be deleted.
+     */
+    static void delete(final Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+            for (final Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Appends the next bytes of the upload and parses them. The content parsed from them is written to the part files, and the manifest is
+     * updated, before this returns. Bytes after the closing boundary are ignored.
+     *
+     * If parsing fails, the session goes back to the state after the last append that returned, so the bytes from {@link #getBytesReceived()} on
+     * can be sent again.
+     *
+     * @param data ByteBuffer, its position is advanced.
+     * @throws IOException if the part files or the manifest cannot be written.
+     */
+    public synchronized void append(final ByteBuffer data) throws IOException {
+        checkOpen();
+        if (manifest.complete) {
+            ((Buffer) data).position(data.limit());
+            return;
+        }
+        final int remaining = data.remaining();
+        boolean ok = false;
+        try {
+            final MIMEMessagePartial msg = message();
+            msg.feed(data);
+            manifest.bytesReceived += remaining - data.remaining();
+            commit();
+            ok = true;
+        } finally {
+            if (!ok) {
+                rollback();
+            }
+        }
+    }
+
+    /**
+     * Signals that all bytes of the upload were appended, and parses the rest. A message without the closing boundary is kept as partial if the
+     * config enables partial messages.
+     *
+     * @throws IOException if the part files or the manifest cannot be written.
+     */
+    public synchronized void complete() throws IOException {
+        checkOpen();
+        if (manifest.complete) {
+            return;
+        }
+        boolean ok = false;
+        try {
+            message().endOfInput();
+            commit();
+            ok = true;
+        } finally {
+            if (!ok) {
+                rollback();
+            }
+        }
+    }
+
+    /**
+     * Gets the upload ID.
+     *
+     * @return String.
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * Gets the separator for parts.
+     *
+     * @return String, without --.
+     */
+    public synchronized String getBoundary() {
+        return manifest.boundary;
+    }
+
+    /**
+     * Gets the number of bytes of the upload received so far. A client resumes the upload from this offset.
+     *
+     * @return long.
+     */
+    public synchronized long getBytesReceived() {
+        return manifest.bytesReceived;
+    }
+
+    /**
+     * Gets if the whole upload was parsed, because the closing boundary was appended or {@link #complete()} was called.
+     *
+     * @return boolean.
+     */
+    public synchronized boolean isComplete() {
+        return manifest.complete;
+    }
+
+    /**
+     * Gets the parts stored so far. The last one may not be complete yet.
+     *
+     * @return List of StoredPart.
+     */
+    public synchronized List<StoredPart> getParts() {
+        final List<StoredPart> parts = new ArrayList<>(manifest.parts.size());
+        for (int i = 0; i < manifest.parts.size(); i++) {
+            final PartRecord record = manifest.parts.get(i);
+            parts.add(new StoredPart(i, record.headerLines, dir.resolve(PART_PREFIX + i), record.length, record.complete));
+        }
+        return parts;
+    }
+
+    /**
+     * Releases the memory and the files held by the session. The stored session stays, and can be opened again.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            discard();
+        }
+    }
+
+    /**
+     * Closes the session and deletes its files.
+     *
+     * @throws IOException if the files cannot be deleted.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        delete(dir);
+    }
+
+    /**
+     * Checks that the session is not closed.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Upload session " + uploadId + " is closed");
+        }
+    }
+
+    /**
+     * Gets the message, resuming it from the checkpoint of the manifest if needed. Part files are cut back to the length in the manifest first.
+     *
+     * @return MIMEMessagePartial.
+     * @throws IOException if a part file cannot be cut.
+     */
+    private MIMEMessagePartial message() throws IOException {
+        if (message == null) {
+            for (int i = 0; i < manifest.parts.size(); i++) {
+                final PartRecord record = manifest.parts.get(i);
+                if (!record.complete) {
+                    file(i).truncate(record.length);
+                }
+            }
+            message = manifest.checkpoint == null ? new MIMEMessagePartial(manifest.boundary, config)
+                    : new MIMEMessagePartial(manifest.checkpoint, config);
+        }
+        return message;
+    }
+
+    /**
+     * Writes the parsed content to the part files, forces them to disk, and replaces the manifest with the new checkpoint.
+     *
+     * @throws IOException if the part files or the manifest cannot be written.
+     */
+    private void commit() throws IOException {
+        write();
+        for (final FileChannel file : files.values()) {
+            file.force(false);
+        }
+        if (message.isParsed()) {
+            manifest.complete = true;
+            manifest.checkpoint = null;
+        } else {
+            manifest.checkpoint = message.checkpoint();
+        }
+        save();
+        if (manifest.complete) {
+            discard();
+        }
+    }
+
+    /**
+     * Writes the content that is parsed and not written yet to the part files. A part file is closed once the part is complete.
+     *
+     * @throws IOException if a part file cannot be written.
+     */
+    private void write() throws IOException {
+        final List<MIMEPartPartial> parts = message.getAttachmentsFound();
+        final byte[] ba = new byte[config.getChunkSize()];
+        for (int i = 0; i < parts.size(); i++) {
+            final MIMEPartPartial part = parts.get(i);
+            final int index = message.getFirstPartIndex() + i;
+            if (index == manifest.parts.size()) {
+                manifest.parts.add(new PartRecord(part.getHeaderLines()));
+            }
+            final PartRecord record = manifest.parts.get(index);
+            if (record.complete) {
+                continue;
+            }
+            InputStream content = contents.get(index);
+            if (content == null) {
+                if (!part.isParsed() && part.getDataHead().tail == null) {
+                    continue;
+                }
+                content = part.getDataHead().readOnce();
+                contents.put(index, content);
+            }
+            final FileChannel file = file(index);
+            final boolean parsed = part.isParsed();
+            int n;
+            // a part that is not parsed yet is only read as far as it does not need more input
+            while ((n = parsed ? content.read(ba) : Math.min(content.available(), ba.length)) > 0) {
+                if (!parsed) {
+                    n = content.read(ba, 0, n);
+                }
+                final ByteBuffer buf = ByteBuffer.wrap(ba, 0, n);
+                while (buf.hasRemaining()) {
+                    record.length += file.write(buf, record.length);
+                }
+            }
+            if (parsed) {
+                record.complete = true;
+                content.close();
+                contents.remove(index);
+                file.force(false);
+                file.close();
+                files.remove(index);
+                part.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the file of a part, opening it if needed.
+     *
+     * @param index part index.
+     * @return FileChannel.
+     * @throws IOException if the file cannot be opened.
+     */
+    private FileChannel file(final int index) throws IOException {
+        FileChannel file = files.get(index);
+        if (file == null) {
+            file = FileChannel.open(dir.resolve(PART_PREFIX + index), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            files.put(index, file);
+        }
+        return file;
+    }
+
+    /**
+     * Writes the manifest to a temp file, forces it to disk, and moves it over the old one.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    private void save() throws IOException {
+        final Path tmp = dir.resolve(MANIFEST_TMP);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final OutputStream os = Channels.newOutputStream(channel);
+            final ObjectOutputStream out = new ObjectOutputStream(os);
+            out.writeObject(manifest);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Goes back to the stored manifest after an error.
+     *
+     * @throws IOException if the manifest cannot be read.
+     */
+    private void rollback() throws IOException {
+        discard();
+        manifest = readManifest(uploadId, dir);
+    }
+
+    /**
+     * Drops the message, its content streams and the open part files. The next append resumes from the manifest.
+     */
+    private void discard() {
+        for (final InputStream content : contents.values()) {
+            try {
+                content.close();
+            } catch (final IOException e) {
+                // Nothing to do
+            }
+        }
+        contents.clear();
+        for (final FileChannel file : files.values()) {
+            try {
+                file.close();
+            } catch (final IOException e) {
+                // Nothing to do
+            }
+        }
+        files.clear();
+        if (message != null) {
+            message.close();
+            message = null;
+        }
+    }
+
+    /**
+     * A part of the upload and its file.
+     */
+    public static final class StoredPart {
+        /** Index of the part. */
+        private final int index;
+        /** Raw header lines. */
+        private final List<String> headerLines;
+        /** File with the raw content. */
+        private final Path path;
+        /** Number of content bytes in the file. */
+        private final long length;
+        /** true if the whole content is in the file. */
+        private final boolean complete;
+
+        /**
+         * Constructor.
+         *
+         * @param index int.
+         * @param headerLines List.
+         * @param path Path.
+         * @param length long.
+         * @param complete boolean.
+         */
+        StoredPart(final int index, final List<String> headerLines, final Path path, final long length, final boolean complete) {
+            this.index = index;
+            this.headerLines = Collections.unmodifiableList(new ArrayList<>(headerLines));
+            this.path = path;
+            this.length = length;
+            this.complete = complete;
+        }
+
+        /**
+         * Gets the index of the part in the upload.
+         *
+         * @return int.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the raw header lines, folded lines are joined with CRLF.
+         *
+         * @return List of String.
+         */
+        public List<String> getHeaderLines() {
+            return headerLines;
+        }
+
+        /**
+         * Gets the value of the first header with a name, unfolded and trimmed.
+         *
+         * @param name header name, not case sensitive.
+         * @return String, or null if there is no such header.
+         */
+        public String getHeader(final String name) {
+            for (final String line : headerLines) {
+                final int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                    return line.substring(colon + 1).replace("\r\n", "").trim();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gets the file with the raw content, which is still transfer encoded. The file may be longer than {@link #getLength()} while the
+         * session is appended to.
+         *
+         * @return Path.
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the number of content bytes stored.
+         *
+         * @return long.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Gets if the whole content of the part is stored.
+         *
+         * @return boolean.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    /**
+     * State of a session, stored in the manifest.
+     */
+    private static final class Manifest implements Serializable {
+        /** Serial version. */
+        private static final long serialVersionUID = 1L;
+        /** The separator for parts. */
+        private final String boundary;
+        /** Number of bytes received. */
+        private long bytesReceived;
+        /** true once the whole upload is parsed. */
+        private boolean complete;
+        /** Checkpoint to resume from, null before the first append and once complete. */
+        private MIMEParserCheckpoint checkpoint;
+        /** Parts stored so far. */
+        private final ArrayList<PartRecord> parts = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param boundary String.
+         */
+        Manifest(final String boundary) {
+            this.boundary = boundary;
+        }
+    }
+
+    /**
+     * A stored part in the manifest.
+     */
+    private static final class PartRecord implements Serializable {
+        /** Serial version. */
+        private static final long serialVersionUID = 1L;
+        /** Raw header lines. */
+        private final ArrayList<String> headerLines;
+        /** Number of content bytes in the file. */
+        private long length;
+        /** true if the whole content is in the file. */
+        private boolean complete;
+
+        /**
+         * Constructor.
+         *
+         * @param headerLines List.
+         */
+        PartRecord(final List<String> headerLines) {
+            this.headerLines = new ArrayList<>(headerLines);
+        }
+    }
+}
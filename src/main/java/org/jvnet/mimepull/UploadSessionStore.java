@@ -0,0 +1,123 @@
+package org.jvnet.mimepull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * File-backed store of {@link UploadSession upload sessions}, for multipart uploads that arrive in several requests. Each session is a directory
+ * named by its upload ID under the "uploads" directory of the temp dir of the config, or of java.io.tmpdir if none is set. It holds the raw
+ * content of every part in its own file and a manifest with the parser checkpoint, so the parts parsed so far survive a restart of the process
+ * and new bytes are parsed from where the last request stopped.
+ */
+public class UploadSessionStore {
+
+    /** Name of the directory under the temp dir. */
+    static final String UPLOADS_DIR = "uploads";
+
+    /** Upload IDs are used as directory names, so they are restricted to safe characters. */
+    private static final Pattern UPLOAD_ID = Pattern.compile("[A-Za-z0-9._-]{1,128}");
+
+    /** Config of the parsed messages. */
+    private final MIMEConfigYM config;
+    /** Directory of the sessions. */
+    private final Path root;
+
+    /**
+     * Constructor.
+     *
+     * @param config config of the parsed messages, its temp dir holds the sessions.
+     * @throws IOException if the directory of the sessions cannot be created.
+     */
+    public UploadSessionStore(final MIMEConfigYM config) throws IOException {
+        this.config = config;
+        final File tempDir = config.getTempDir() != null ? config.getTempDir() : new File(System.getProperty("java.io.tmpdir"));
+        this.root = Files.createDirectories(tempDir.toPath().resolve(UPLOADS_DIR)).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Opens a session. A new session is created if there is none for the upload ID, otherwise the stored one is loaded.
+     *
+     * @param uploadId letters, digits, '.', '_' and '-', at most 128 characters, not "." or "..".
+     * @param boundary the separator for parts(pass it without --)
+     * @return UploadSession.
+     * @throws IOException if the session cannot be created or loaded, or it was stored with another boundary.
+     */
+    public UploadSession open(final String uploadId, final String boundary) throws IOException {
+        final Path dir = dir(uploadId);
+        if (Files.exists(dir.resolve(UploadSession.MANIFEST))) {
+            final UploadSession session = UploadSession.load(uploadId, dir, config);
+            if (!session.getBoundary().equals(boundary)) {
+                throw new IOException("Upload session " + uploadId + " has another boundary");
+            }
+            return session;
+        }
+        return UploadSession.create(uploadId, dir, boundary, config);
+    }
+
+    /**
+     * Loads a stored session.
+     *
+     * @param uploadId String.
+     * @return UploadSession, or null if there is none for the upload ID.
+     * @throws IOException if the session cannot be loaded.
+     */
+    public UploadSession get(final String uploadId) throws IOException {
+        final Path dir = dir(uploadId);
+        if (!Files.exists(dir.resolve(UploadSession.MANIFEST))) {
+            return null;
+        }
+        return UploadSession.load(uploadId, dir, config);
+    }
+
+    /**
+     * Lists the upload IDs of the stored sessions, for example to resume or clean them up after a restart.
+     *
+     * @return List of upload IDs.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public List<String> list() throws IOException {
+        final List<String> ids = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (final Path dir : dirs) {
+                if (Files.exists(dir.resolve(UploadSession.MANIFEST))) {
+                    ids.add(dir.getFileName().toString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Deletes a session and its files. A session that is open must be closed first.
+     *
+     * @param uploadId String.
+     * @throws IOException if the files cannot be deleted.
+     */
+    public void delete(final String uploadId) throws IOException {
+        UploadSession.delete(dir(uploadId));
+    }
+
+    /**
+     * Gets the directory of a session.
+     *
+     * @param uploadId String.
+     * @return Path.
+     */
+    private Path dir(final String uploadId) {
+        if (uploadId == null || !UPLOAD_ID.matcher(uploadId).matches()) {
+            throw new IllegalArgumentException("Invalid upload ID: " + uploadId);
+        }
+        // "." and ".." match the pattern but are not directories under root
+        final Path dir = root.resolve(uploadId).normalize();
+        if (!root.equals(dir.getParent())) {
+            throw new IllegalArgumentException("Invalid upload ID: " + uploadId);
+        }
+        return dir;
+    }
+}
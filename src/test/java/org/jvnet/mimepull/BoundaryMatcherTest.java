@@ -0,0 +1,265 @@
+package org.jvnet.mimepull;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * BoundaryMatcherTest compares both searches of BoundaryMatcher to a naive search, in byte arrays and in place in direct buffers, and has
+ * throughput benchmarks that are excluded from the regular build. Run them with -Dgroups=benchmark -Dtest.excludedGroups=none.
+ *
+ * @author wayneng
+ *
+ */
+public class BoundaryMatcherTest {
+
+    /** boundaries of different lengths, including the prefix "--". */
+    private static final String[] BOUNDARIES = {"--b", "--AaB03x", "--Boundary_123_test",
+        "----=_Part_0_1234567890.1234567890123", "--uuid:0f4f1c05-5e4d-4a5a-9a6b-b7b1f2d4e6a8"};
+
+    /**
+     * testIndexOf searches random binary, text and base64 bodies with delimiters and lookalikes at random positions.
+     */
+    @Test
+    public void testIndexOf() {
+        final Random random = new Random(42);
+        for (final String strBoundary : BOUNDARIES) {
+            final byte[] baPattern = strBoundary.getBytes(StandardCharsets.US_ASCII);
+            for (final boolean boyerMoore : new boolean[] {true, false}) {
+                final BoundaryMatcher matcher = new BoundaryMatcher(baPattern, boyerMoore);
+                for (int n = 0; n < 200; n++) {
+                    final byte[] ba = createBody(random, n % 3, 1 + random.nextInt(300));
+                    for (int k = random.nextInt(4); k > 0; k--) {
+                        final int pos = random.nextInt(ba.length);
+                        final int sz = Math.min(baPattern.length - random.nextInt(2), ba.length - pos);
+                        System.arraycopy(baPattern, 0, ba, pos, sz);
+                    }
+                    final int off = random.nextInt(ba.length);
+                    final int len = off + random.nextInt(ba.length - off + 1);
+                    Assert.assertEquals(matcher.indexOf(ba, off, len), naiveIndexOf(baPattern, ba, off, len),
+                            String.format("boundary %s boyerMoore %b", strBoundary, boyerMoore));
+                    // in place, at an offset in the buffer like a part in a mapped file
+                    final ByteBuffer direct = ByteBuffer.allocateDirect(ba.length + 5);
+                    ((Buffer) direct).position(5);
+                    direct.put(ba);
+                    final int expected = naiveIndexOf(baPattern, ba, off, len);
+                    Assert.assertEquals(matcher.indexOf(direct, off + 5, len + 5), expected == -1 ? -1 : expected + 5,
+                            String.format("in place, boundary %s boyerMoore %b", strBoundary, boyerMoore));
+                }
+            }
+        }
+    }
+
+    /**
+     * testBinaryAliasing checks bytes that alias the delimiter in 7 bits, which shifted poorly with the 7 bit table.
+     */
+    @Test
+    public void testBinaryAliasing() {
+        final byte[] baPattern = "--Boundary_123_test".getBytes(StandardCharsets.US_ASCII);
+        final byte[] ba = new byte[4096];
+        for (int i = 0; i < ba.length; i++) {
+            ba[i] = (byte) (baPattern[i % baPattern.length] | 0x80);
+        }
+        System.arraycopy(baPattern, 0, ba, 4000, baPattern.length);
+        for (final boolean boyerMoore : new boolean[] {true, false}) {
+            Assert.assertEquals(new BoundaryMatcher(baPattern, boyerMoore).indexOf(ba, 0, ba.length), 4000);
+        }
+    }
+
+    /**
+     * testProbeLines searches base64 bodies with delimiters at line starts, and lookalikes and delimiters in the middle of lines.
+     */
+    @Test
+    public void testProbeLines() {
+        final Random random = new Random(42);
+        for (final String strBoundary : BOUNDARIES) {
+            final byte[] baPattern = strBoundary.getBytes(StandardCharsets.US_ASCII);
+            final BoundaryMatcher matcher = new BoundaryMatcher(baPattern);
+            for (int n = 0; n < 500; n++) {
+                final byte[] ba = createBody(random, 2, 1 + random.nextInt(400));
+                for (int k = random.nextInt(4); k > 0; k--) {
+                    final int pos = random.nextInt(ba.length);
+                    final int sz = Math.min(baPattern.length - random.nextInt(2), ba.length - pos);
+                    System.arraycopy(baPattern, 0, ba, pos, sz);
+                    if (pos > 0 && random.nextBoolean()) {
+                        ba[pos - 1] = '\n';
+                    }
+                }
+                final int off = random.nextInt(ba.length);
+                final int len = off + random.nextInt(ba.length - off + 1);
+                final boolean bol = random.nextBoolean();
+                Assert.assertEquals(matcher.probeLines(ba, off, len, bol), naiveIndexOfLine(baPattern, ba, off, len, bol),
+                        String.format("boundary %s", strBoundary));
+            }
+        }
+    }
+
+    /**
+     * testPartialMatch checks the suffixes kept for a delimiter that continues after the end of the buffer.
+     */
+    @Test
+    public void testPartialMatch() {
+        final BoundaryMatcher matcher = new BoundaryMatcher("--AaB03x".getBytes(StandardCharsets.US_ASCII));
+        final String[] bodies = {"abc", "abc-", "abc--A", "abc\r", "abc\n", "abc\r\n", "abc\r\n--AaB03", "abc\n--", "abc\r-", "abc-x", "abc\n\n",
+            "abc--AaB03x"};
+        final int[] expected = {0, 1, 3, 1, 1, 2, 9, 3, 2, 0, 1, 0};
+        for (int i = 0; i < bodies.length; i++) {
+            final byte[] ba = bodies[i].getBytes(StandardCharsets.US_ASCII);
+            Assert.assertEquals(matcher.partialMatch(ba, 0, ba.length), expected[i], bodies[i]);
+            final ByteBuffer direct = ByteBuffer.allocateDirect(ba.length + 1);
+            ((Buffer) direct).position(1);
+            direct.put(ba);
+            Assert.assertEquals(matcher.partialMatch(direct, 1, ba.length + 1), expected[i], "in place " + bodies[i]);
+        }
+    }
+
+    /**
+     * benchmarkIndexOf prints the throughput of both searches on binary and text bodies, and of Boyer-Moore and the line anchored search on base64
+     * bodies.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkIndexOf() {
+        final Random random = new Random(42);
+        final String[] types = {"binary", "text", "base64"};
+        for (final String strBoundary : BOUNDARIES) {
+            final byte[] baPattern = strBoundary.getBytes(StandardCharsets.US_ASCII);
+            for (int type = 0; type < types.length; type++) {
+                final byte[] ba = createBody(random, type, 8 << 20);
+                for (final boolean boyerMoore : new boolean[] {true, false}) {
+                    final BoundaryMatcher matcher = new BoundaryMatcher(baPattern, boyerMoore);
+                    final boolean lineAnchored = type == 2 && !boyerMoore;
+                    long bytes = 0;
+                    long start = 0;
+                    for (int n = 0; n < 20; n++) {
+                        if (n == 10) {
+                            // warmed up
+                            bytes = 0;
+                            start = System.nanoTime();
+                        }
+                        Assert.assertEquals(lineAnchored ? matcher.probeLines(ba, 0, ba.length, true) : matcher.indexOf(ba, 0, ba.length), -1);
+                        bytes += ba.length;
+                    }
+                    final double mbps = bytes / 1.048576 / 1000.0 / ((System.nanoTime() - start) / 1e6);
+                    System.out.println(String.format("%-45s %-7s %-11s %8.0f MB/s", strBoundary, types[type],
+                            boyerMoore ? "boyer-moore" : lineAnchored ? "line" : "word scan", mbps));
+                }
+            }
+        }
+    }
+
+    /**
+     * benchmarkInPlace prints the throughput of searching a direct buffer, like a mapped file, in windows of 8 KB: in place, and copied to a
+     * byte array first as the parser did before.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkInPlace() {
+        final Random random = new Random(42);
+        final int window = 8192;
+        for (final String strBoundary : BOUNDARIES) {
+            final BoundaryMatcher matcher = new BoundaryMatcher(strBoundary.getBytes(StandardCharsets.US_ASCII));
+            final byte[] ba = createBody(random, 0, 8 << 20);
+            final ByteBuffer direct = ByteBuffer.allocateDirect(ba.length);
+            direct.put(ba);
+            final byte[] baWindow = new byte[window];
+            for (final boolean inPlace : new boolean[] {true, false}) {
+                long bytes = 0;
+                long start = 0;
+                for (int n = 0; n < 60; n++) {
+                    if (n == 40) {
+                        // warmed up
+                        bytes = 0;
+                        start = System.nanoTime();
+                    }
+                    for (int off = 0; off + window <= ba.length; off += window) {
+                        if (inPlace) {
+                            Assert.assertEquals(matcher.indexOf(direct, off, off + window), -1);
+                        } else {
+                            ((Buffer) direct).position(off);
+                            direct.get(baWindow);
+                            Assert.assertEquals(matcher.indexOf(baWindow, 0, window), -1);
+                        }
+                    }
+                    bytes += ba.length;
+                }
+                final double mbps = bytes / 1.048576 / 1000.0 / ((System.nanoTime() - start) / 1e6);
+                System.out.println(String.format("%-45s %-8s %8.0f MB/s", strBoundary, inPlace ? "in place" : "copied", mbps));
+            }
+        }
+    }
+
+    /**
+     * Creates a body without any "--".
+     *
+     * @param random Random.
+     * @param type 0 binary, 1 text, 2 base64.
+     * @param size number of bytes.
+     * @return body bytes.
+     */
+    private static byte[] createBody(final Random random, final int type, final int size) {
+        final byte[] ba = new byte[size];
+        if (type == 0) {
+            random.nextBytes(ba);
+        } else if (type == 1) {
+            final byte[] baText = "The quick brown fox - jumps over the lazy dog.\r\n".getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < size; i++) {
+                ba[i] = baText[(i + random.nextInt(2)) % baText.length];
+            }
+        } else {
+            final byte[] baRaw = new byte[size];
+            random.nextBytes(baRaw);
+            final byte[] baB64 = Base64.getMimeEncoder().encode(baRaw);
+            System.arraycopy(baB64, 0, ba, 0, size);
+        }
+        for (int i = 1; i < size; i++) {
+            if (ba[i] == '-' && ba[i - 1] == '-') {
+                ba[i] = '+';
+            }
+        }
+        return ba;
+    }
+
+    /**
+     * Naive search.
+     *
+     * @param baPattern delimiter.
+     * @param ba body.
+     * @param off start index.
+     * @param len end index.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    private static int naiveIndexOf(final byte[] baPattern, final byte[] ba, final int off, final int len) {
+        NEXT: for (int i = off; i <= len - baPattern.length; i++) {
+            for (int j = 0; j < baPattern.length; j++) {
+                if (ba[i + j] != baPattern[j]) {
+                    continue NEXT;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Naive search for a delimiter at the start of a line.
+     *
+     * @param baPattern delimiter.
+     * @param ba body.
+     * @param off start index.
+     * @param len end index.
+     * @param bol true if index 0 is at the beginning of a line.
+     * @return -1 if there is no match or index where the match starts.
+     */
+    private static int naiveIndexOfLine(final byte[] baPattern, final byte[] ba, final int off, final int len, final boolean bol) {
+        for (int i = off; (i = naiveIndexOf(baPattern, ba, i, len)) != -1; i++) {
+            if (i == 0 ? bol : ba[i - 1] == '\n' || ba[i - 1] == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
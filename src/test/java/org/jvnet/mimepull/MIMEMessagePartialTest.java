@@ -4,13 +4,30 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -1482,4 +1499,1089 @@ public class MIMEMessagePartialTest {
     public void testSimpleCreateFormDataMultiPart() throws Exception {
         // FormDataMultiPart formDataMultiPart = new FormDataMultiPart();
     }
+
+    /**
+     * testSlidingWindowBuffer parses the same multipart message with and without the sliding window buffer and compares every part's content.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testSlidingWindowBuffer() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 5, 20000);
+
+        final MIMEConfigYM mimeCfgRef = new MIMEConfigYM(false, 1024, -1L, true);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfgRef);
+
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfg.setSlidingWindowBuffer(true);
+        final List<byte[]> listCmp = MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg);
+
+        Assert.assertEquals(listCmp.size(), 5);
+        Assert.assertEquals(listCmp.size(), listRef.size());
+        for (int i = 0; i < listRef.size(); i++) {
+            Assert.assertTrue(Arrays.equals(listRef.get(i), listCmp.get(i)), "content mismatch for part " + i);
+        }
+    }
+
+    /**
+     * testChunkBufferPool parses two messages with a shared pool. The chunk buffers of the first message go back to the pool when it is closed, and
+     * the second message reuses them without corrupting its content.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testChunkBufferPool() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 3, 10000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        final BoundedChunkBufferPool pool = new BoundedChunkBufferPool(1024, 100);
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfg.setChunkBufferPool(pool);
+        Assert.assertEquals(pool.getIdleCount(), 0);
+        List<byte[]> listCmp = MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg);
+        final int idleCount = pool.getIdleCount();
+        Assert.assertTrue(idleCount > 0, "chunk buffers were not given back to the pool");
+        for (int i = 0; i < listRef.size(); i++) {
+            Assert.assertTrue(Arrays.equals(listRef.get(i), listCmp.get(i)), "content mismatch for part " + i);
+        }
+
+        listCmp = MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg);
+        Assert.assertEquals(pool.getIdleCount(), idleCount);
+        for (int i = 0; i < listRef.size(); i++) {
+            Assert.assertTrue(Arrays.equals(listRef.get(i), listCmp.get(i)), "content mismatch for part " + i);
+        }
+
+        // an open stream keeps the buffers of its part until it is closed
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+        final List<MIMEPartPartial> l = mimeMsg.getAttachmentsPartial();
+        final InputStream isPart = l.get(0).read();
+        mimeMsg.close();
+        Assert.assertTrue(pool.getIdleCount() < idleCount, "buffers of a part being read were given back");
+        Assert.assertEquals(isPart.read(), listRef.get(0)[0] & 0xff);
+        isPart.close();
+        Assert.assertEquals(pool.getIdleCount(), idleCount);
+    }
+
+    /**
+     * testChunkBufferPoolClosedPart closes a part before it is parsed. The chunks parsed for it later go straight back to the pool, so no buffer
+     * is outstanding once the other parts are read and the message is closed.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testChunkBufferPoolClosedPart() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 3, 10000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        final BoundedChunkBufferPool pool = new BoundedChunkBufferPool(1024, 100);
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfg.setChunkBufferPool(pool);
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+        try {
+            mimeMsg.getPart(0).close();
+            final List<MIMEPartPartial> listParts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(listParts.size(), listRef.size());
+            for (int i = 1; i < listRef.size(); i++) {
+                Assert.assertTrue(Arrays.equals(MIMETestUtils.readFully(listParts.get(i).read()), listRef.get(i)), "content mismatch for part " + i);
+            }
+        } finally {
+            mimeMsg.close();
+        }
+        Assert.assertEquals(pool.getOutstandingCount(), 0, "chunk buffers of the closed part were not given back to the pool");
+    }
+
+    /**
+     * testOffHeap parses a message keeping part content in direct buffers, in memory, spilled to a file and with a direct pool.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testOffHeap() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 3, 10000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        final MIMEConfigYM mimeCfgMemory = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfgMemory.setOffHeap(true);
+        final MIMEConfigYM mimeCfgFile = new MIMEConfigYM(false, 1024, 4096L, true);
+        mimeCfgFile.setOffHeap(true);
+        final MIMEConfigYM mimeCfgPool = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfgPool.setOffHeap(true);
+        final BoundedChunkBufferPool pool = new BoundedChunkBufferPool(1024, 100, true);
+        mimeCfgPool.setChunkBufferPool(pool);
+
+        for (final MIMEConfigYM mimeCfg : new MIMEConfigYM[] {mimeCfgMemory, mimeCfgFile, mimeCfgPool}) {
+            final List<byte[]> listCmp = MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg);
+            Assert.assertEquals(listCmp.size(), listRef.size());
+            for (int i = 0; i < listRef.size(); i++) {
+                Assert.assertTrue(Arrays.equals(listRef.get(i), listCmp.get(i)), "content mismatch for part " + i);
+            }
+        }
+        Assert.assertTrue(pool.getIdleCount() > 0, "direct buffers were not given back to the pool");
+    }
+
+    /**
+     * testRetainedChunkSize parses a form with many small fields and a part with many boundary lookalikes, which are parsed into small chunks. The
+     * memory held by the parts stays close to the content size instead of one parse buffer per chunk.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testRetainedChunkSize() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final int numFields = 200;
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < numFields; i++) {
+            baos.write(String.format("--%s\r\nContent-Disposition: form-data; name=\"field_%d\"\r\n\r\nvalue_%d\r\n", strBoundary, i, i)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        final StringBuilder sbLookalike = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sbLookalike.append(String.format("line_%d\r\n--Boundary_123_tesX\r\n", i));
+        }
+        final String strLookalike = sbLookalike.toString();
+        baos.write(String.format("--%s\r\nContent-Disposition: form-data; name=\"lookalike\"\r\n\r\n%s\r\n--%s--\r\n", strBoundary, strLookalike,
+                strBoundary).getBytes(StandardCharsets.UTF_8));
+        final byte[] baMsg = baos.toByteArray();
+
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 8192, -1L, true);
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+        try {
+            final List<MIMEPartPartial> listParts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(listParts.size(), numFields + 1);
+            long retained = 0;
+            long content = 0;
+            for (final MIMEPartPartial mimePart : listParts) {
+                retained += mimePart.getDataHead().getRetainedBytes();
+                content += mimePart.getDataHead().inMemory;
+            }
+            Assert.assertTrue(retained <= 2 * content + 8192, String.format("retained %d bytes for %d bytes of content", retained, content));
+
+            for (int i = 0; i < numFields; i++) {
+                Assert.assertEquals(new String(MIMETestUtils.readFully(listParts.get(i).read()), StandardCharsets.UTF_8), "value_" + i);
+            }
+            Assert.assertEquals(new String(MIMETestUtils.readFully(listParts.get(numFields).read()), StandardCharsets.UTF_8), strLookalike);
+        } finally {
+            mimeMsg.close();
+        }
+    }
+
+    /**
+     * testBase64Parts parses base64 parts, whose boundary is only looked for at line starts, between text parts and checks the decoded content.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testBase64Parts() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final List<byte[]> listExpected = new ArrayList<>();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < 6; i++) {
+            final byte[] baContent;
+            String s = String.format("--%s\r\nContent-Disposition: attachment; filename=\"file_%d\"\r\n", strBoundary, i);
+            if (i % 2 == 0) {
+                baContent = mimeTestUtils.randBytes(1000 + 3000 * i + i);
+                s += "Content-Transfer-Encoding: Base64\r\n\r\n";
+                baos.write(s.getBytes(StandardCharsets.UTF_8));
+                baos.write(Base64.getMimeEncoder().encode(baContent));
+            } else {
+                baContent = String.format("text_%d\r\n--%s-\r\n-", i, strBoundary).getBytes(StandardCharsets.UTF_8);
+                s += "\r\n";
+                baos.write(s.getBytes(StandardCharsets.UTF_8));
+                baos.write(baContent);
+            }
+            baos.write("\r\n".getBytes(StandardCharsets.UTF_8));
+            listExpected.add(baContent);
+        }
+        baos.write(String.format("--%s--\r\n", strBoundary).getBytes(StandardCharsets.UTF_8));
+
+        final List<byte[]> listCmp = MIMETestUtils.readAllParts(baos.toByteArray(), strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        Assert.assertEquals(listCmp.size(), listExpected.size());
+        for (int i = 0; i < listExpected.size(); i++) {
+            Assert.assertTrue(Arrays.equals(listExpected.get(i), listCmp.get(i)), "content mismatch for part " + i);
+        }
+    }
+
+    /**
+     * testBoundaryAcrossFills moves the boundary across the end of the parse buffer one byte at a time, with and without the sliding window buffer,
+     * so that every split of the line break and the boundary between two fills is parsed.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testBoundaryAcrossFills() throws Exception {
+        final String strBoundary = "uuid:0f4f1c05-5e4d-4a5a-9a6b-b7b1f2d4e6a8";
+        final int chunkSize = 64;
+        // the parse buffer holds chunkSize + about 1000 bytes, and every chunk moves it by chunkSize
+        for (int pad = 1100; pad < 1100 + 2 * chunkSize; pad++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < pad; i++) {
+                sb.append((char) ('a' + i % 26));
+            }
+            final String strContent = sb.toString() + "\r\n--" + strBoundary.substring(0, pad % strBoundary.length()) + "\r\n";
+            final String strMsg = String.format("--%s\r\n\r\n%s\r\n--%s\r\n\r\nsecond\r\n--%s--\r\n", strBoundary, strContent, strBoundary,
+                    strBoundary);
+            for (final boolean isSlidingWindow : new boolean[] {false, true}) {
+                final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, chunkSize, -1L, true);
+                mimeCfg.setSlidingWindowBuffer(isSlidingWindow);
+                final List<byte[]> listCmp = MIMETestUtils.readAllParts(strMsg.getBytes(StandardCharsets.UTF_8), strBoundary, mimeCfg);
+                Assert.assertEquals(listCmp.size(), 2, "pad " + pad);
+                Assert.assertEquals(new String(listCmp.get(0), StandardCharsets.UTF_8), strContent, "pad " + pad);
+                Assert.assertEquals(new String(listCmp.get(1), StandardCharsets.UTF_8), "second", "pad " + pad);
+            }
+        }
+    }
+
+    /**
+     * testBoundaryLookalikes parses a body full of boundaries in the middle of lines and boundary lines with trailing garbage. False matches are
+     * skipped within the parse buffer, so the body is returned in full size chunks instead of one chunk per lookalike.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testBoundaryLookalikes() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final int chunkSize = 1024;
+        final byte[] baBody = createLookalikeBody(strBoundary, 100000);
+        final ByteArrayOutputStream baosContent = new ByteArrayOutputStream();
+        final int numChunks = parseBody(createLookalikeMessage(strBoundary, baBody), strBoundary, new MIMEConfigYM(false, chunkSize, -1L, true),
+                baosContent);
+        Assert.assertTrue(Arrays.equals(baosContent.toByteArray(), baBody), "content mismatch");
+        Assert.assertTrue(numChunks <= baBody.length / chunkSize + 2, String.format("%d chunks for %d bytes", numChunks, baBody.length));
+    }
+
+    /**
+     * benchmarkBoundaryLookalikes prints the parse time of bodies full of boundary lookalikes, which grows linearly with the body size.
+     *
+     * @throws Exception exception.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkBoundaryLookalikes() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        for (int sz = 1 << 20; sz <= 32 << 20; sz <<= 1) {
+            final byte[] baMsg = createLookalikeMessage(strBoundary, createLookalikeBody(strBoundary, sz));
+            long elapsed = Long.MAX_VALUE;
+            int numChunks = 0;
+            for (int n = 0; n < 5; n++) {
+                final long start = System.nanoTime();
+                numChunks = parseBody(baMsg, strBoundary, new MIMEConfigYM(false, 8192, -1L, true), null);
+                elapsed = Math.min(elapsed, System.nanoTime() - start);
+            }
+            System.out.println(String.format("lookalike body %9d bytes %6d chunks %8.1f ms %8.0f MB/s", sz, numChunks, elapsed / 1e6,
+                    sz / 1.048576 / (elapsed / 1e3)));
+        }
+    }
+
+    /**
+     * Creates a body with a boundary in the middle of a line and a boundary line with trailing garbage every 44 bytes.
+     *
+     * @param strBoundary boundary without the leading dashes.
+     * @param sz approx size of the body.
+     * @return body bytes.
+     */
+    private byte[] createLookalikeBody(final String strBoundary, final int sz) {
+        final byte[] baLine = String.format("x--%s\r\n--%sX\r\n", strBoundary, strBoundary).getBytes(StandardCharsets.UTF_8);
+        final byte[] baBody = new byte[sz - sz % baLine.length];
+        for (int i = 0; i < baBody.length; i += baLine.length) {
+            System.arraycopy(baLine, 0, baBody, i, baLine.length);
+        }
+        return baBody;
+    }
+
+    /**
+     * Creates a message with a single part.
+     *
+     * @param strBoundary boundary without the leading dashes.
+     * @param baBody body of the part.
+     * @return message bytes.
+     * @throws IOException exception.
+     */
+    private byte[] createLookalikeMessage(final String strBoundary, final byte[] baBody) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(String.format("--%s\r\n\r\n", strBoundary).getBytes(StandardCharsets.UTF_8));
+        baos.write(baBody);
+        baos.write(String.format("\r\n--%s--\r\n", strBoundary).getBytes(StandardCharsets.UTF_8));
+        return baos.toByteArray();
+    }
+
+    /**
+     * Runs the parser over a message and collects the content chunks.
+     *
+     * @param baMsg message bytes.
+     * @param strBoundary boundary without the leading dashes.
+     * @param mimeCfg MIMEConfigYM.
+     * @param baosContent receives the content of all parts, can be null.
+     * @return number of content chunks.
+     */
+    private int parseBody(final byte[] baMsg, final String strBoundary, final MIMEConfigYM mimeCfg, final ByteArrayOutputStream baosContent) {
+        int numChunks = 0;
+        for (final MIMEEvent event : new MIMEParserPartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg)) {
+            if (event.getEventType() == MIMEEvent.EVENT_TYPE.CONTENT) {
+                numChunks++;
+                if (baosContent != null) {
+                    final ByteBuffer buf = ((MIMEEventPartial.ContentPartial) event).getData().duplicate();
+                    final byte[] ba = new byte[buf.remaining()];
+                    buf.get(ba);
+                    baosContent.write(ba, 0, ba.length);
+                }
+            }
+        }
+        return numChunks;
+    }
+
+    /**
+     * testPushModeNoInput calls next() on a parser in push mode that has no next event, at the start, in the headers and in the body of a
+     * part, with and without low latency. It fails instead of waiting for bytes that can only be pushed by the same thread.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testPushModeNoInput() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 2, 5000);
+        final int headersAt = strBoundary.length() + 10;
+        for (final boolean isLowLatency : new boolean[] {false, true}) {
+            for (final int pushed : new int[] {0, headersAt, baMsg.length / 2}) {
+                final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+                mimeCfg.setLowLatency(isLowLatency);
+                final MIMEParserPartial mimeParser = new MIMEParserPartial(strBoundary, mimeCfg);
+                mimeParser.feed(ByteBuffer.wrap(baMsg, 0, pushed));
+                final Iterator<MIMEEvent> it = mimeParser.iterator();
+                while (it.hasNext()) {
+                    it.next();
+                }
+                try {
+                    it.next();
+                    Assert.fail("next event without input, " + pushed + " bytes pushed");
+                } catch (final NoSuchElementException expected) {
+                    // more bytes needed
+                }
+                mimeParser.feed(ByteBuffer.wrap(baMsg, pushed, baMsg.length - pushed));
+                mimeParser.endOfInput();
+                MIMEEvent event = null;
+                while (it.hasNext()) {
+                    event = it.next();
+                }
+                Assert.assertEquals(event.getEventType(), MIMEEvent.EVENT_TYPE.END_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * testPushMode pushes a message in random slices, with a preamble and a header longer than the parse buffer, and compares every part's
+     * content with the parts read from an InputStream.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testPushMode() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write("preamble\r\n".getBytes(StandardCharsets.UTF_8));
+        baos.write(String.format("--%s\r\nX-Long: %s\r\n\r\nlong header\r\n", strBoundary, mimeTestUtils.randString(3000))
+                .getBytes(StandardCharsets.UTF_8));
+        baos.write(mimeTestUtils.createMultipartMessage(strBoundary, 4, 10000));
+        baos.write("epilogue\r\n".getBytes(StandardCharsets.UTF_8));
+        final byte[] baMsg = baos.toByteArray();
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        Assert.assertEquals(listRef.size(), 5);
+
+        final Random random = new Random(42);
+        for (final boolean isSlidingWindow : new boolean[] {false, true}) {
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+            mimeCfg.setSlidingWindowBuffer(isSlidingWindow);
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(strBoundary, mimeCfg);
+            try {
+                int off = 0;
+                while (off < baMsg.length) {
+                    final int n = Math.min(1 + random.nextInt(100), baMsg.length - off);
+                    final ByteBuffer buf = ByteBuffer.wrap(baMsg, off, n);
+                    mimeMsg.feed(buf);
+                    // only the epilogue is left over
+                    Assert.assertTrue(!buf.hasRemaining() || mimeMsg.isParsed());
+                    off += n;
+                    if (off >= baMsg.length / 2) {
+                        Assert.assertTrue(mimeMsg.getAttachmentsPartial().get(0).isParsed());
+                    }
+                }
+                Assert.assertTrue(mimeMsg.isParsed());
+                mimeMsg.endOfInput();
+
+                final List<MIMEPartPartial> listParts = mimeMsg.getAttachmentsPartial();
+                Assert.assertEquals(listParts.size(), listRef.size());
+                for (int i = 0; i < listRef.size(); i++) {
+                    Assert.assertTrue(listParts.get(i).isParsed());
+                    Assert.assertTrue(Arrays.equals(MIMETestUtils.readFully(listParts.get(i).read()), listRef.get(i)), "content mismatch for part " + i);
+                }
+            } finally {
+                mimeMsg.close();
+            }
+        }
+    }
+
+    /**
+     * testPushModeEndOfInput checks a message that ends without the closing boundary. A partial message keeps the content, otherwise it is an
+     * error, and reading a part that is not parsed yet does not block.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testPushModeEndOfInput() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strSecond = mimeTestUtils.randString(2000);
+        final byte[] baMsg = String.format("--%s\r\n\r\nfirst\r\n--%s\r\n\r\n%s", strBoundary, strBoundary, strSecond)
+                .getBytes(StandardCharsets.UTF_8);
+
+        MIMEMessagePartial mimeMsg = new MIMEMessagePartial(strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        mimeMsg.feed(ByteBuffer.wrap(baMsg, 0, baMsg.length - 1500));
+        Assert.assertEquals(mimeMsg.getAttachmentsPartial().size(), 2);
+        try {
+            mimeMsg.getAttachmentsPartial().get(1).read();
+            Assert.fail("read of a part without content");
+        } catch (final IllegalStateException expected) {
+            // no content pushed yet
+        }
+        mimeMsg.feed(ByteBuffer.wrap(baMsg, baMsg.length - 1500, 1500));
+        Assert.assertFalse(mimeMsg.isParsed());
+        Assert.assertTrue(mimeMsg.getAttachmentsPartial().get(0).isParsed());
+        Assert.assertFalse(mimeMsg.getAttachmentsPartial().get(1).isParsed());
+        try {
+            MIMETestUtils.readFully(mimeMsg.getAttachmentsPartial().get(1).read());
+            Assert.fail("read beyond the pushed content");
+        } catch (final IOException expected) {
+            // more input needed
+        }
+        mimeMsg.endOfInput();
+        Assert.assertTrue(mimeMsg.isParsed());
+        Assert.assertTrue(mimeMsg.getIsPartial());
+        Assert.assertEquals(new String(MIMETestUtils.readFully(mimeMsg.getAttachmentsPartial().get(0).read()), StandardCharsets.UTF_8), "first");
+        Assert.assertEquals(new String(MIMETestUtils.readFully(mimeMsg.getAttachmentsPartial().get(1).read()), StandardCharsets.UTF_8), strSecond);
+        mimeMsg.close();
+
+        mimeMsg = new MIMEMessagePartial(strBoundary, new MIMEConfigYM(false, 1024, -1L, false));
+        mimeMsg.feed(ByteBuffer.wrap(baMsg));
+        try {
+            mimeMsg.endOfInput();
+            Assert.fail("no closing boundary");
+        } catch (final MIMEParsingException expected) {
+            // not a partial message
+        } finally {
+            mimeMsg.close();
+        }
+    }
+
+    /**
+     * testChannelAndPathInput parses a message from a channel and from a mapped file, and compares every part's content with the parts read from
+     * an InputStream. The content of the mapped file is not copied into heap buffers, unless it is small enough to be coalesced, and a FileChannel
+     * is mapped as well. Several chunk sizes put the boundaries at different places of the windows searched in place.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testChannelAndPathInput() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 5, 20000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        MIMEMessagePartial mimeMsg = new MIMEMessagePartial(Channels.newChannel(new ByteArrayInputStream(baMsg)), strBoundary,
+                new MIMEConfigYM(false, 1024, -1L, true));
+        assertParts(mimeMsg, listRef);
+
+        final Path path = Files.createTempFile("MIMEMessagePartialTest", ".mime");
+        try {
+            Files.write(path, baMsg);
+            mimeMsg = new MIMEMessagePartial(path, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+            final ByteBuffer buf = mimeMsg.getAttachmentsPartial().get(0).getDataHead().head.data.read();
+            Assert.assertTrue(buf.isDirect() && buf.isReadOnly(), "content is not a slice of the mapped file");
+            assertParts(mimeMsg, listRef);
+
+            for (final int chunkSize : new int[] {100, 1000, 1024, 4096, 50000}) {
+                mimeMsg = new MIMEMessagePartial(path, strBoundary, new MIMEConfigYM(false, chunkSize, -1L, true));
+                assertParts(mimeMsg, listRef);
+            }
+
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            mimeMsg = new MIMEMessagePartial(channel, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+            Assert.assertFalse(channel.isOpen());
+            Assert.assertTrue(mimeMsg.getAttachmentsPartial().get(0).getDataHead().head.data.read().isDirect(), "FileChannel is not mapped");
+            assertParts(mimeMsg, listRef);
+
+            // spilled to a file
+            mimeMsg = new MIMEMessagePartial(path, strBoundary, new MIMEConfigYM(false, 1024, 4096L, true));
+            assertParts(mimeMsg, listRef);
+
+            // truncated file of a partial message
+            Files.write(path, Arrays.copyOf(baMsg, baMsg.length / 2));
+            mimeMsg = new MIMEMessagePartial(path, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+            Assert.assertTrue(mimeMsg.getIsPartial());
+            final List<byte[]> listPartial = MIMETestUtils.readAllParts(Arrays.copyOf(baMsg, baMsg.length / 2), strBoundary,
+                    new MIMEConfigYM(false, 1024, -1L, true));
+            assertParts(mimeMsg, listPartial);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * testLowLatency reads a message from a stream that returns a few bytes per read. In low latency mode the first content of a part is available
+     * after a few reads instead of after a full parse buffer, and the content is the same as with full buffers.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testLowLatency() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 4, 30000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 8192, -1L, true));
+
+        for (final boolean isLowLatency : new boolean[] {false, true}) {
+            final int[] consumed = new int[1];
+            final InputStream isSlow = new ByteArrayInputStream(baMsg) {
+                @Override
+                public synchronized int read(final byte[] b, final int off, final int len) {
+                    final int n = super.read(b, off, Math.min(len, 37));
+                    consumed[0] += Math.max(n, 0);
+                    return n;
+                }
+            };
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 8192, -1L, true);
+            mimeCfg.setLowLatency(isLowLatency);
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(isSlow, strBoundary, mimeCfg);
+            final InputStream isPart = mimeMsg.getPart(0).read();
+            Assert.assertTrue(isPart.read() != -1);
+            if (isLowLatency) {
+                Assert.assertTrue(consumed[0] < 1024, "bytes read before the first content: " + consumed[0]);
+            } else {
+                Assert.assertTrue(consumed[0] > 8192, "bytes read before the first content: " + consumed[0]);
+            }
+            isPart.close();
+            assertParts(mimeMsg, listRef);
+        }
+
+        // the same content with the sliding window buffer and random read sizes
+        final Random random = new Random(42);
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfg.setLowLatency(true);
+        mimeCfg.setSlidingWindowBuffer(true);
+        final InputStream isRandom = new ByteArrayInputStream(baMsg) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 1 + random.nextInt(200)));
+            }
+        };
+        assertParts(new MIMEMessagePartial(isRandom, strBoundary, mimeCfg), listRef);
+    }
+
+    /**
+     * testReadAhead parses messages whose stream is read ahead on another thread, with and without low latency mode, and checks that a stream error
+     * reaches the parser and that closing the message ends the read ahead task.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testReadAhead() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 5, 20000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final Random random = new Random(42);
+            for (final boolean isLowLatency : new boolean[] {false, true}) {
+                final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+                mimeCfg.setReadAheadExecutor(executor);
+                mimeCfg.setLowLatency(isLowLatency);
+                final InputStream isRandom = new ByteArrayInputStream(baMsg) {
+                    @Override
+                    public synchronized int read(final byte[] b, final int off, final int len) {
+                        return super.read(b, off, Math.min(len, 1 + random.nextInt(3000)));
+                    }
+                };
+                assertParts(new MIMEMessagePartial(isRandom, strBoundary, mimeCfg), listRef);
+            }
+
+            // a stream error is thrown on the parsing thread
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+            mimeCfg.setReadAheadExecutor(executor);
+            final InputStream isBroken = new ByteArrayInputStream(baMsg, 0, baMsg.length / 2) {
+                @Override
+                public synchronized int read(final byte[] b, final int off, final int len) {
+                    final int n = super.read(b, off, len);
+                    if (n == -1) {
+                        throw new IllegalStateException("connection reset");
+                    }
+                    return n;
+                }
+            };
+            MIMEMessagePartial mimeMsg = new MIMEMessagePartial(isBroken, strBoundary, mimeCfg);
+            try {
+                mimeMsg.parseAllPartial();
+                Assert.fail("stream error not thrown");
+            } catch (final MIMEParsingException expected) {
+                Assert.assertTrue(expected.getCause().getCause() instanceof IllegalStateException);
+            } finally {
+                mimeMsg.close();
+            }
+
+            // closing the message stops the task waiting for a free buffer
+            final CountDownLatch latch = new CountDownLatch(1);
+            final Executor executorLatch = command -> executor.execute(() -> {
+                command.run();
+                latch.countDown();
+            });
+            mimeCfg.setReadAheadExecutor(executorLatch);
+            mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+            Assert.assertNotNull(mimeMsg.getPart(0).read());
+            mimeMsg.close();
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS), "read ahead task did not end");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * testIndexedHeaders parses header blocks with folded lines, lines without ':', mixed case names, repeated headers, CR-CR-NL and a header
+     * block larger than the buffer. The headers of every part are the same as those of the base class MIMEMessage, in pull mode, low latency
+     * mode and push mode, and lookups ignore the case of the name.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testIndexedHeaders() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final StringBuilder sbLong = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sbLong.append("X-Long-").append(i).append(": value ").append(i).append("\r\n");
+        }
+        final String[] headerBlocks = {
+            "Content-Type: text/plain;\r\n charset=utf-8\r\n\tformat=flowed\r\ncontent-id: <part0>\r\nX-Dup: one\r\nx-dup:two\r\n",
+            "Content-ID:<part1>\r\nNoColonLine\r\nContent-Description:  folded\r\n  description\r\nX-Empty:\r\n  X-Spaced  :  v\r\n",
+            "Content-Type: application/octet-stream\r\r\nX-Lf-Only: yes\n",
+            sbLong.toString(),
+            ""};
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < headerBlocks.length; i++) {
+            baos.write(String.format("--%s\r\n%s\r\ncontent %d\r\n", strBoundary, headerBlocks[i], i).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        baos.write(String.format("--%s--\r\n", strBoundary).getBytes(StandardCharsets.ISO_8859_1));
+        final byte[] baMsg = baos.toByteArray();
+
+        final List<List<String>> listRef = new ArrayList<>();
+        final MIMEMessage mimeRef = new MIMEMessage(new ByteArrayInputStream(baMsg), strBoundary);
+        for (final MIMEPart part : mimeRef.getAttachments()) {
+            listRef.add(describeHeaders(part));
+        }
+        Assert.assertEquals(listRef.size(), headerBlocks.length);
+
+        final MIMEConfigYM configLowLatency = new MIMEConfigYM(false, 256, -1L, true);
+        configLowLatency.setLowLatency(true);
+        final MIMEMessagePartial mimePush = new MIMEMessagePartial(strBoundary, new MIMEConfigYM(false, 256, -1L, true));
+        for (int i = 0; i < baMsg.length; i += 7) {
+            mimePush.feed(ByteBuffer.wrap(baMsg, i, Math.min(7, baMsg.length - i)));
+        }
+        mimePush.endOfInput();
+        final MIMEMessagePartial[] messages = {
+            new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, new MIMEConfigYM(false, 256, -1L, true)),
+            new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, configLowLatency),
+            mimePush};
+        for (final MIMEMessagePartial mimeMsg : messages) {
+            final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(parts.size(), headerBlocks.length);
+            for (int i = 0; i < parts.size(); i++) {
+                final MIMEPartPartial part = parts.get(i);
+                Assert.assertEquals(describeHeaders(part), listRef.get(i), "headers of part " + i);
+                Assert.assertEquals(new String(MIMETestUtils.readFully(part.readOnce()), StandardCharsets.ISO_8859_1), "content " + i);
+            }
+            Assert.assertEquals(parts.get(0).getContentId(), "part0");
+            Assert.assertEquals(parts.get(0).getHeader("X-DUP").toString(), "[one, two]");
+            Assert.assertEquals(parts.get(1).getHeader("content-description").toString(), "[  folded\r\n  description]");
+            Assert.assertEquals(parts.get(2).getContentType(), "application/octet-stream\r");
+            mimeMsg.close();
+        }
+    }
+
+    /**
+     * testLargeHeaderBlocks parses parts whose header blocks are many times the chunk size, in pull mode, with a sliding window buffer, in low
+     * latency mode and pushed a few bytes at a time. The headers and the content are the same as those of the base class MIMEMessage. A header
+     * block over the max header block size fails.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testLargeHeaderBlocks() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final int[] numHeaders = {300, 5, 1200};
+        for (int i = 0; i < numHeaders.length; i++) {
+            baos.write(String.format("--%s\r\nContent-Disposition: form-data; name=\"file%d\";\r\n filename=\"%s.txt\"\r\n", strBoundary, i,
+                    mimeTestUtils.randString(3000)).getBytes(StandardCharsets.ISO_8859_1));
+            for (int j = 0; j < numHeaders[i]; j++) {
+                baos.write(String.format("X-Header-%d: value %d\r\n", j, j).getBytes(StandardCharsets.ISO_8859_1));
+            }
+            baos.write(String.format("\r\n%s\r\n", mimeTestUtils.randString(5000)).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        baos.write(String.format("--%s--\r\n", strBoundary).getBytes(StandardCharsets.ISO_8859_1));
+        final byte[] baMsg = baos.toByteArray();
+
+        final List<List<String>> listRef = new ArrayList<>();
+        final List<byte[]> listContent = new ArrayList<>();
+        final MIMEMessage mimeRef = new MIMEMessage(new ByteArrayInputStream(baMsg), strBoundary);
+        for (final MIMEPart part : mimeRef.getAttachments()) {
+            listRef.add(describeHeaders(part));
+            listContent.add(MIMETestUtils.readFully(part.read()));
+        }
+
+        final MIMEConfigYM configSliding = new MIMEConfigYM(false, 1024, -1L, true);
+        configSliding.setSlidingWindowBuffer(true);
+        final MIMEConfigYM configLowLatency = new MIMEConfigYM(false, 1024, -1L, true);
+        configLowLatency.setLowLatency(true);
+        final MIMEMessagePartial mimePush = new MIMEMessagePartial(strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        for (int i = 0; i < baMsg.length; i += 5) {
+            mimePush.feed(ByteBuffer.wrap(baMsg, i, Math.min(5, baMsg.length - i)));
+        }
+        mimePush.endOfInput();
+        final MIMEMessagePartial[] messages = {
+            new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, new MIMEConfigYM(false, 1024, -1L, true)),
+            new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, configSliding),
+            new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, configLowLatency),
+            mimePush};
+        for (final MIMEMessagePartial mimeMsg : messages) {
+            final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(parts.size(), numHeaders.length);
+            for (int i = 0; i < parts.size(); i++) {
+                Assert.assertEquals(describeHeaders(parts.get(i)), listRef.get(i), "headers of part " + i);
+                Assert.assertTrue(Arrays.equals(MIMETestUtils.readFully(parts.get(i).readOnce()), listContent.get(i)), "content of part " + i);
+            }
+            mimeMsg.close();
+        }
+
+        final MIMEConfigYM configLimit = new MIMEConfigYM(false, 1024, -1L, true);
+        configLimit.setMaxHeaderBlockSize(16 * 1024);
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, configLimit);
+        try {
+            mimeMsg.getAttachmentsPartial();
+            Assert.fail("header block over the limit");
+        } catch (final MIMEParsingException expected) {
+            // the first header block is about 9 KB, the last about 30 KB
+            Assert.assertEquals(mimeMsg.getAttachmentsFound().size(), 2);
+        } finally {
+            mimeMsg.close();
+        }
+    }
+
+    /**
+     * testParsedHeaders checks that Content-Type and Content-Disposition are parsed once per part, with quoted, folded and RFC 2231 parameters,
+     * and that common header names are looked up without case and interned.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testParsedHeaders() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final String strMsg = String.format("--%1$s\r\n"
+                + "Content-Type: Text/Plain; charset=\"UTF-8\";\r\n format=flowed\r\n"
+                + "content-disposition: form-data; name=\"field\\\"1\"; filename=\"a;b.txt\"; filename*=UTF-8''%%E2%%82%%AC%%20rates.txt\r\n"
+                + "\r\nfirst\r\n--%1$s\r\n"
+                + "Content-Type: multipart/mixed; boundary=inner; broken; =x\r\n"
+                + "Content-Disposition: attachment; title*0*=us-ascii'en'This%%20is; title*1=\" long\"; TITLE*2*=%%21\r\n"
+                + "\r\nsecond\r\n--%1$s\r\n"
+                + "\r\nthird\r\n--%1$s--\r\n", strBoundary);
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(strMsg.getBytes(StandardCharsets.ISO_8859_1)),
+                strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+        Assert.assertEquals(parts.size(), 3);
+
+        final ContentType ct0 = parts.get(0).getParsedContentType();
+        Assert.assertSame(parts.get(0).getParsedContentType(), ct0);
+        Assert.assertEquals(ct0.getBaseType(), "text/plain");
+        Assert.assertTrue(ct0.match("TEXT/*"));
+        Assert.assertFalse(ct0.match("text/html"));
+        Assert.assertEquals(ct0.getCharset(), "UTF-8");
+        Assert.assertEquals(ct0.getParameter("Format"), "flowed");
+        final ContentDisposition cd0 = parts.get(0).getContentDisposition();
+        Assert.assertSame(parts.get(0).getContentDisposition(), cd0);
+        Assert.assertEquals(cd0.getType(), "form-data");
+        Assert.assertEquals(cd0.getName(), "field\"1");
+        Assert.assertEquals(cd0.getFilename(), "\u20ac rates.txt");
+
+        final ContentType ct1 = parts.get(1).getParsedContentType();
+        Assert.assertEquals(ct1.getPrimaryType(), "multipart");
+        Assert.assertEquals(ct1.getSubType(), "mixed");
+        Assert.assertEquals(ct1.getParameter("boundary"), "inner");
+        Assert.assertEquals(ct1.getParameters().size(), 1);
+        Assert.assertEquals(parts.get(1).getContentDisposition().getParameter("title"), "This is long!");
+
+        Assert.assertEquals(parts.get(2).getParsedContentType().getBaseType(), "application/octet-stream");
+        Assert.assertNull(parts.get(2).getContentDisposition());
+
+        // names spelled as in the table are interned, lookups ignore case either way
+        Assert.assertSame(parts.get(0).getAllHeaders().get(0).getName(), HeaderNames.CONTENT_TYPE);
+        Assert.assertEquals(parts.get(0).getAllHeaders().get(1).getName(), "content-disposition");
+        Assert.assertEquals(parts.get(0).getHeader("CONTENT-DISPOSITION").size(), 1);
+        Assert.assertEquals(parts.get(1).getHeader("content-type").size(), 1);
+        Assert.assertEquals(ContentType.parse("text/plain").toString(), "text/plain");
+        mimeMsg.close();
+    }
+
+    /**
+     * testManyPartsHeaders parses a message with thousands of small parts, whose headers are kept until the message is closed, and compares the
+     * headers of every part with those of the base class MIMEMessage. Header objects are made for every call of getAllHeaders().
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testManyPartsHeaders() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final int numParts = 3000;
+        for (int i = 0; i < numParts; i++) {
+            baos.write(String.format("--%s\r\nContent-Type: text/plain\r\nContent-ID: <%d>\r\nX-Index: %d\r\n\tfolded\r\n%s%d\r\n", strBoundary,
+                    i, i, i % 3 == 0 ? "\r\n" : "Content-Disposition: form-data; name=f" + i + "\r\n\r\n", i).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        baos.write(String.format("--%s--\r\n", strBoundary).getBytes(StandardCharsets.ISO_8859_1));
+        final byte[] baMsg = baos.toByteArray();
+
+        final List<? extends MIMEPart> partsRef = new MIMEMessage(new ByteArrayInputStream(baMsg), strBoundary).getAttachments();
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary,
+                new MIMEConfigYM(false, 1024, -1L, true));
+        final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+        Assert.assertEquals(parts.size(), numParts);
+        for (int i = 0; i < numParts; i++) {
+            final MIMEPartPartial part = parts.get(i);
+            Assert.assertEquals(describeHeaders(part), describeHeaders(partsRef.get(i)), "headers of part " + i);
+            Assert.assertEquals(part.getContentId(), String.valueOf(i));
+            Assert.assertEquals(part.getHeader("x-index").get(0), i + "\r\n\tfolded");
+            Assert.assertEquals(new String(MIMETestUtils.readFully(part.readOnce()), StandardCharsets.ISO_8859_1), String.valueOf(i));
+        }
+        Assert.assertNotSame(parts.get(0).getAllHeaders(), parts.get(0).getAllHeaders());
+        Assert.assertEquals(parts.get(numParts - 1).getContentDisposition().getName(), "f" + (numParts - 1));
+        mimeMsg.close();
+    }
+
+    /**
+     * testMemoryGovernorClosedPart closes a part before it is parsed. Nothing is charged for the chunks parsed for it later, so the governor
+     * has no bytes in use once the other parts are closed.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testMemoryGovernorClosedPart() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 3, 20000);
+        final MemoryGovernor governor = new MemoryGovernor(1024 * 1024);
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfg.setMemoryGovernor(governor);
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+        try {
+            mimeMsg.getPart(0).close();
+            final List<MIMEPartPartial> listParts = mimeMsg.getAttachmentsPartial();
+            Assert.assertTrue(governor.getUsedBytes() > 0);
+            for (int i = 1; i < listParts.size(); i++) {
+                listParts.get(i).close();
+            }
+            Assert.assertEquals(governor.getUsedBytes(), 0L, "chunks of the closed part are still charged");
+        } finally {
+            mimeMsg.close();
+        }
+    }
+
+    /**
+     * testMemoryGovernor parses messages whose configs share a memory budget. With the SPILL policy, parts that do not fit are spilled and the
+     * content is unchanged. With the WAIT policy, a part waits for another message to be closed, or spills once the max wait is over. Closing the
+     * messages, or reading the parts with readOnce(), gives all the memory back.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testMemoryGovernor() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 8, 20000);
+        final List<byte[]> listExpected = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        // SPILL
+        final MemoryGovernor spillGovernor = new MemoryGovernor(64 * 1024);
+        final MIMEConfigYM spillCfg = new MIMEConfigYM(false, 1024, 1048576L, true);
+        spillCfg.setMemoryGovernor(spillGovernor);
+        final MIMEMessagePartial spillMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, spillCfg);
+        final MIMEMessagePartial spillMsg2 = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, spillCfg);
+        Assert.assertEquals(spillMsg.getAttachmentsPartial().size(), listExpected.size());
+        Assert.assertEquals(spillMsg2.getAttachmentsPartial().size(), listExpected.size());
+        Assert.assertTrue(spillGovernor.getForcedSpillCount() > 0);
+        Assert.assertTrue(spillGovernor.getPeakBytes() <= spillGovernor.getBudget());
+        for (int i = 0; i < listExpected.size(); i++) {
+            Assert.assertEquals(MIMETestUtils.readFully(spillMsg.getAttachmentsPartial().get(i).read()), listExpected.get(i));
+            Assert.assertEquals(MIMETestUtils.readFully(spillMsg2.getAttachmentsPartial().get(i).readOnce()), listExpected.get(i));
+        }
+        spillMsg.close();
+        Assert.assertEquals(spillGovernor.getUsedBytes(), 0L);
+        spillMsg2.close();
+
+        // WAIT for another message to be closed
+        final MemoryGovernor waitGovernor = new MemoryGovernor(64 * 1024, MemoryGovernor.Policy.WAIT, 60000L);
+        final MIMEConfigYM waitCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        waitCfg.setMemoryGovernor(waitGovernor);
+        final byte[] baHolder = mimeTestUtils.createMultipartMessage(strBoundary, 1, 25000);
+        final MIMEMessagePartial holder = new MIMEMessagePartial(new ByteArrayInputStream(baHolder), strBoundary, waitCfg);
+        holder.getAttachmentsPartial();
+        // the chunks keep the parse buffers they were cut from, which are larger than the content
+        Assert.assertTrue(waitGovernor.getUsedBytes() > 40000);
+        Assert.assertTrue(waitGovernor.getUsedBytes() <= 64 * 1024);
+        final Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            holder.close();
+        });
+        closer.start();
+        final MIMEMessagePartial waitMsg = new MIMEMessagePartial(new ByteArrayInputStream(mimeTestUtils.createMultipartMessage(strBoundary, 1,
+                20000)), strBoundary, waitCfg);
+        Assert.assertEquals(waitMsg.getAttachmentsPartial().size(), 1);
+        closer.join();
+        Assert.assertTrue(waitGovernor.getWaitCount() > 0);
+        Assert.assertEquals(waitGovernor.getForcedSpillCount(), 0L);
+        waitMsg.close();
+        Assert.assertEquals(waitGovernor.getUsedBytes(), 0L);
+
+        // WAIT until the max wait is over, then spill
+        final MemoryGovernor timeoutGovernor = new MemoryGovernor(64 * 1024, MemoryGovernor.Policy.WAIT, 50L);
+        final MIMEConfigYM timeoutCfg = new MIMEConfigYM(false, 1024, 1048576L, true);
+        timeoutCfg.setMemoryGovernor(timeoutGovernor);
+        final MIMEMessagePartial timeoutMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, timeoutCfg);
+        for (int i = 0; i < listExpected.size(); i++) {
+            Assert.assertEquals(MIMETestUtils.readFully(timeoutMsg.getAttachmentsPartial().get(i).read()), listExpected.get(i));
+        }
+        Assert.assertTrue(timeoutGovernor.getWaitCount() > 0);
+        Assert.assertTrue(timeoutGovernor.getForcedSpillCount() > 0);
+        timeoutMsg.close();
+        Assert.assertEquals(timeoutGovernor.getUsedBytes(), 0L);
+    }
+
+    /**
+     * testTransferTo writes parts to a file channel and to a channel without gathering writes, with the parts in memory, spilled, spilled and
+     * compressed, and base64 encoded. The bytes written are the content read() returns, which can still be read afterwards.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testTransferTo() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baPlain = mimeTestUtils.createMultipartMessage(strBoundary, 3, 20000);
+        final byte[] content = mimeTestUtils.randString(30000).getBytes(StandardCharsets.UTF_8);
+        final String encoded = Base64.getMimeEncoder().encodeToString(content);
+        final byte[] baEncoded = String.format("--%s\r\nContent-Type: application/octet-stream\r\nContent-Transfer-Encoding: base64\r\n\r\n"
+                + "%s\r\n--%s--\r\n", strBoundary, encoded, strBoundary).getBytes(StandardCharsets.ISO_8859_1);
+        final List<byte[]> listExpected = MIMETestUtils.readAllParts(baPlain, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        final MIMEConfigYM[] configs = {new MIMEConfigYM(false, 1024, -1L, true), new MIMEConfigYM(false, 1024, 4096L, true),
+            new MIMEConfigYM(false, 1024, 4096L, true)};
+        configs[2].setSpillCompression(SpillCompression.PROBE);
+        final Path path = Files.createTempFile("MIMEMessagePartialTest", ".bin");
+        try {
+            for (final MIMEConfigYM mimeCfg : configs) {
+                final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baPlain), strBoundary, mimeCfg);
+                for (int i = 0; i < listExpected.size(); i++) {
+                    final MIMEPartPartial part = mimeMsg.getPart(i);
+                    try (FileChannel channel = FileChannel.open(path,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        Assert.assertEquals(part.transferTo(channel), listExpected.get(i).length);
+                    }
+                    Assert.assertEquals(Files.readAllBytes(path), listExpected.get(i));
+                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    Assert.assertEquals(part.transferTo(Channels.newChannel(baos)), listExpected.get(i).length);
+                    Assert.assertEquals(baos.toByteArray(), listExpected.get(i));
+                    Assert.assertEquals(MIMETestUtils.readFully(part.read()), listExpected.get(i));
+                }
+                mimeMsg.close();
+
+                final MIMEMessagePartial encodedMsg = new MIMEMessagePartial(new ByteArrayInputStream(baEncoded), strBoundary, mimeCfg);
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                Assert.assertEquals(encodedMsg.getPart(0).transferTo(Channels.newChannel(baos)), content.length);
+                Assert.assertEquals(baos.toByteArray(), content);
+                encodedMsg.close();
+            }
+
+            // a non-blocking target is refused, and a spill file shorter than the part fails instead of looping
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baPlain), strBoundary, configs[1]);
+            final MIMEPartPartial part = mimeMsg.getAttachmentsPartial().get(2);
+            final Pipe pipe = Pipe.open();
+            try {
+                pipe.sink().configureBlocking(false);
+                part.transferTo(pipe.sink());
+                Assert.fail("non-blocking target");
+            } catch (final IllegalBlockingModeException expected) {
+                // refused
+            } finally {
+                pipe.sink().close();
+                pipe.source().close();
+            }
+            try (FileChannel channel = FileChannel.open(mimeMsg.getSpillFile().getFile().toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(mimeMsg.getSpillFile().size() - 100);
+            }
+            try {
+                part.transferTo(Channels.newChannel(new ByteArrayOutputStream()));
+                Assert.fail("spill file shorter than the part");
+            } catch (final IOException expected) {
+                // file ended
+            } finally {
+                mimeMsg.close();
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Describes the headers of a part, and the results of looking them up in upper and lower case.
+     *
+     * @param part MIMEPart.
+     * @return List of String.
+     */
+    private List<String> describeHeaders(final MIMEPart part) {
+        final List<String> headers = new ArrayList<>();
+        for (final Header header : part.getAllHeaders()) {
+            headers.add(header.getName() + "=" + header.getValue());
+            headers.add(String.valueOf(part.getHeader(header.getName().toUpperCase())));
+            headers.add(String.valueOf(part.getHeader(header.getName().toLowerCase())));
+        }
+        headers.add(String.valueOf(part.getHeader("Missing")));
+        return headers;
+    }
+
+    /**
+     * Reads every part of a message, compares it with the expected content, and closes the message.
+     *
+     * @param mimeMsg MIMEMessagePartial.
+     * @param listExpected content of each part.
+     * @throws IOException exception.
+     */
+    private void assertParts(final MIMEMessagePartial mimeMsg, final List<byte[]> listExpected) throws IOException {
+        try {
+            final List<MIMEPartPartial> listParts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(listParts.size(), listExpected.size());
+            for (int i = 0; i < listExpected.size(); i++) {
+                Assert.assertTrue(Arrays.equals(MIMETestUtils.readFully(listParts.get(i).read()), listExpected.get(i)), "content mismatch for part " + i);
+            }
+        } finally {
+            mimeMsg.close();
+        }
+    }
 }
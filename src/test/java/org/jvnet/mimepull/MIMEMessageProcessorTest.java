@@ -0,0 +1,302 @@
+package org.jvnet.mimepull;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * MIMEMessageProcessorTest tests the Reactive Streams processor for push-mode messages.
+ *
+ * @author wayneng
+ *
+ */
+public class MIMEMessageProcessorTest {
+    /**
+     * testReactiveProcessor publishes a message in slices to a MIMEMessageProcessor, and requests one part at a time. The publisher must not be
+     * asked for more slices while the subscriber has no demand.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testReactiveProcessor() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 4, 10000);
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        final int[] emitted = new int[1];
+        final Publisher<ByteBuffer> publisher = s -> s.onSubscribe(new Subscription() {
+            @Override
+            public void request(final long n) {
+                for (long k = 0; k < n && emitted[0] < baMsg.length; k++) {
+                    final int sz = Math.min(500, baMsg.length - emitted[0]);
+                    final ByteBuffer buf = ByteBuffer.wrap(baMsg, emitted[0], sz);
+                    emitted[0] += sz;
+                    s.onNext(buf);
+                }
+                if (emitted[0] == baMsg.length) {
+                    emitted[0]++;
+                    s.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                // Nothing to do
+            }
+        });
+
+        final List<MIMEPartPartial> listParts = new ArrayList<>();
+        final Subscription[] subscription = new Subscription[1];
+        final boolean[] completed = new boolean[1];
+        final MIMEMessageProcessor processor = new MIMEMessageProcessor(strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        processor.subscribe(new Subscriber<MIMEPartPartial>() {
+            @Override
+            public void onSubscribe(final Subscription s) {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onNext(final MIMEPartPartial part) {
+                listParts.add(part);
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+                Assert.fail("unexpected error", t);
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+        publisher.subscribe(processor);
+        try {
+            Assert.assertEquals(emitted[0], 0);
+            for (int i = 0; i < listRef.size(); i++) {
+                subscription[0].request(1);
+                Assert.assertEquals(listParts.size(), i + 1);
+                final int emittedBefore = emitted[0];
+                Assert.assertTrue(listParts.get(i).isParsed());
+                Assert.assertTrue(Arrays.equals(MIMETestUtils.readFully(listParts.get(i).read()), listRef.get(i)), "content mismatch for part " + i);
+                // no demand, no input
+                Assert.assertEquals(emitted[0], emittedBefore);
+                if (i == 0) {
+                    Assert.assertTrue(emittedBefore < baMsg.length / 2, "input requested without demand");
+                }
+            }
+            // onComplete needs no demand
+            Assert.assertTrue(completed[0]);
+            Assert.assertEquals(listParts.size(), listRef.size());
+        } finally {
+            processor.getMessage().close();
+        }
+    }
+
+    /**
+     * testReactiveProcessorRelease spills the parts published by a MIMEMessageProcessor. When the subscriber cancels while a part is parsing,
+     * and when the input completes, the spill file is deleted once the delivered parts are closed.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testReactiveProcessorRelease() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 4, 20000);
+        final Path dir = Files.createTempDirectory("MIMEMessageProcessorTest");
+        try {
+            for (final boolean isCancel : new boolean[] {true, false}) {
+                // the upload stalls in the third part when cancelled
+                final int limit = isCancel ? baMsg.length * 5 / 8 : baMsg.length;
+                final int[] emitted = new int[1];
+                final Publisher<ByteBuffer> publisher = s -> s.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(final long n) {
+                        for (long k = 0; k < n && emitted[0] < limit; k++) {
+                            final int sz = Math.min(500, limit - emitted[0]);
+                            final ByteBuffer buf = ByteBuffer.wrap(baMsg, emitted[0], sz);
+                            emitted[0] += sz;
+                            s.onNext(buf);
+                        }
+                        if (emitted[0] == baMsg.length) {
+                            emitted[0]++;
+                            s.onComplete();
+                        }
+                    }
+
+                    @Override
+                    public void cancel() {
+                        // Nothing to do
+                    }
+                });
+
+                final List<MIMEPartPartial> listParts = new ArrayList<>();
+                final Subscription[] subscription = new Subscription[1];
+                final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, 1024L, true);
+                mimeCfg.setDirYM(dir.toString());
+                final MIMEMessageProcessor processor = new MIMEMessageProcessor(strBoundary, mimeCfg);
+                processor.subscribe(new Subscriber<MIMEPartPartial>() {
+                    @Override
+                    public void onSubscribe(final Subscription s) {
+                        subscription[0] = s;
+                    }
+
+                    @Override
+                    public void onNext(final MIMEPartPartial part) {
+                        listParts.add(part);
+                    }
+
+                    @Override
+                    public void onError(final Throwable t) {
+                        Assert.fail("unexpected error", t);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        // Nothing to do
+                    }
+                });
+                publisher.subscribe(processor);
+                subscription[0].request(Long.MAX_VALUE);
+                Assert.assertEquals(listParts.size(), isCancel ? 2 : 4);
+                Assert.assertEquals(dir.toFile().list().length, 1);
+                if (isCancel) {
+                    subscription[0].cancel();
+                }
+                for (final MIMEPartPartial part : listParts) {
+                    Assert.assertEquals(dir.toFile().list().length, 1);
+                    MIMETestUtils.readFully(part.read());
+                    part.close();
+                }
+                Assert.assertEquals(dir.toFile().list().length, 0);
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * testReactiveProcessorCancelDuringFeed cancels the subscription on one thread while the input is parsed on another. Releasing the message
+     * waits for the parsing to return, and then closes every part that was not delivered, so no pooled buffer is left outstanding.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testReactiveProcessorCancelDuringFeed() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 4, 10000);
+        final CountDownLatch parsing = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final BoundedChunkBufferPool pool = new BoundedChunkBufferPool(1024, 100);
+        final AtomicInteger acquired = new AtomicInteger();
+        final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+        mimeCfg.setChunkBufferPool(new ChunkBufferPool() {
+            @Override
+            public ByteBuffer acquire(final int minCapacity) {
+                // parsing stops in the middle of the second part until the test resumes it
+                if (acquired.incrementAndGet() == 15) {
+                    parsing.countDown();
+                    try {
+                        resume.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return pool.acquire(minCapacity);
+            }
+
+            @Override
+            public void release(final ByteBuffer buf) {
+                pool.release(buf);
+            }
+        });
+
+        final Semaphore requested = new Semaphore(0);
+        final AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        final MIMEMessageProcessor processor = new MIMEMessageProcessor(strBoundary, mimeCfg);
+        final List<MIMEPartPartial> listParts = new CopyOnWriteArrayList<>();
+        final Subscription[] subscription = new Subscription[1];
+        processor.subscribe(new Subscriber<MIMEPartPartial>() {
+            @Override
+            public void onSubscribe(final Subscription s) {
+                subscription[0] = s;
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(final MIMEPartPartial part) {
+                listParts.add(part);
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+                Assert.fail("unexpected error", t);
+            }
+
+            @Override
+            public void onComplete() {
+                Assert.fail("completed after cancel");
+            }
+        });
+        processor.onSubscribe(new Subscription() {
+            @Override
+            public void request(final long n) {
+                requested.release((int) Math.min(n, Integer.MAX_VALUE));
+            }
+
+            @Override
+            public void cancel() {
+                upstreamCancelled.set(true);
+                requested.release();
+            }
+        });
+
+        final Thread upstream = new Thread(() -> {
+            try {
+                for (int emitted = 0; emitted < baMsg.length && !upstreamCancelled.get(); emitted += 500) {
+                    requested.acquire();
+                    processor.onNext(ByteBuffer.wrap(baMsg, emitted, Math.min(500, baMsg.length - emitted)));
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final Thread canceller = new Thread(() -> subscription[0].cancel());
+        upstream.start();
+        try {
+            Assert.assertTrue(parsing.await(10, TimeUnit.SECONDS), "parsing did not reach the second part");
+            canceller.start();
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (canceller.getState() != Thread.State.BLOCKED && canceller.isAlive() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(canceller.getState(), Thread.State.BLOCKED, "cancel did not wait for the parsing thread");
+        } finally {
+            resume.countDown();
+            canceller.join(10000);
+            upstream.join(10000);
+        }
+        Assert.assertTrue(upstreamCancelled.get());
+        Assert.assertEquals(listParts.size(), 1);
+        listParts.get(0).close();
+        Assert.assertEquals(pool.getOutstandingCount(), 0, "buffers of the parts that were not delivered were not given back");
+    }
+}
@@ -0,0 +1,269 @@
+package org.jvnet.mimepull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * MIMEParserCheckpointTest tests resuming interrupted messages from checkpoints, and the upload session store built on them.
+ *
+ * @author wayneng
+ *
+ */
+public class MIMEParserCheckpointTest {
+    /**
+     * testCheckpoint interrupts a pushed message at many offsets, serializes a checkpoint, and resumes a new message from it with only the rest of
+     * the bytes. The content of the parts before and after the checkpoint adds up to the content of the whole message. A pull mode message whose
+     * stream fails is resumed the same way.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testCheckpoint() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write("preamble\r\n".getBytes(StandardCharsets.UTF_8));
+        baos.write(String.format("--%s\r\nContent-Type: text/plain;\r\n charset=utf-8\r\nContent-Transfer-Encoding: base64\r\n\r\n%s\r\n", strBoundary,
+                Base64.getMimeEncoder().encodeToString(mimeTestUtils.randString(5000).getBytes(StandardCharsets.UTF_8))).getBytes(StandardCharsets.UTF_8));
+        baos.write(mimeTestUtils.createMultipartMessage(strBoundary, 3, 5000));
+        final byte[] baMsg = baos.toByteArray();
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        final Random random = new Random(42);
+        for (int n = 0; n < 40; n++) {
+            final int cut = random.nextInt(baMsg.length);
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+            mimeMsg.feed(ByteBuffer.wrap(baMsg, 0, cut));
+            final MIMEParserCheckpoint checkpoint = serialize(mimeMsg.checkpoint());
+            Assert.assertEquals(checkpoint.getBytesConsumed(), cut);
+
+            final MIMEMessagePartial mimeResumed = new MIMEMessagePartial(checkpoint, new MIMEConfigYM(false, 1024, -1L, true));
+            mimeResumed.feed(ByteBuffer.wrap(baMsg, cut, baMsg.length - cut));
+            mimeResumed.endOfInput();
+            Assert.assertEquals(mimeResumed.getFirstPartIndex(), checkpoint.getPartIndex());
+            assertResumed(mimeMsg, mimeResumed, listRef, "cut at " + cut);
+        }
+
+        // an offset beyond 2 GiB is kept, so the size limit still applies to the resumed message
+        final MIMEMessagePartial mimeLarge = new MIMEMessagePartial(strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        mimeLarge.feed(ByteBuffer.wrap(baMsg, 0, 100));
+        final MIMEParserCheckpoint small = mimeLarge.checkpoint();
+        final MIMEParserCheckpoint large = new MIMEParserCheckpoint(strBoundary, small.getState(), small.getPartIndex(), 3L << 30, small.getTail(),
+                small.isBol(), small.isLineAnchored(), small.getScanFrom(), small.getHeaderLines());
+        final MIMEMessagePartial mimeLargeResumed = new MIMEMessagePartial(large, new MIMEConfigYM(false, 1024, -1L, true));
+        try {
+            mimeLargeResumed.feed(ByteBuffer.wrap(baMsg, 100, baMsg.length - 100));
+            Assert.fail("size limit not applied after a checkpoint beyond 2 GiB");
+        } catch (final MIMEParsingException expected) {
+            // over the limit
+        } finally {
+            mimeLarge.close();
+            mimeLargeResumed.close();
+        }
+
+        // pull mode, the stream fails
+        final int cut = baMsg.length / 2;
+        final InputStream isBroken = new FilterInputStream(new ByteArrayInputStream(baMsg, 0, cut)) {
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int n = super.read(b, off, Math.min(len, 300));
+                if (n == -1) {
+                    throw new IOException("connection reset");
+                }
+                return n;
+            }
+        };
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(isBroken, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        try {
+            mimeMsg.parseAllPartial();
+            Assert.fail("stream error not thrown");
+        } catch (final MIMEParsingException expected) {
+            // interrupted
+        }
+        final MIMEParserCheckpoint checkpoint = serialize(mimeMsg.checkpoint());
+        Assert.assertEquals(checkpoint.getBytesConsumed(), cut);
+        final MIMEMessagePartial mimeResumed = new MIMEMessagePartial(new ByteArrayInputStream(baMsg, cut, baMsg.length - cut), checkpoint,
+                new MIMEConfigYM(false, 1024, -1L, true));
+        mimeResumed.parseAllPartial();
+        assertResumed(mimeMsg, mimeResumed, listRef, "pull");
+
+        try {
+            mimeResumed.checkpoint();
+            Assert.fail("checkpoint of a parsed message");
+        } catch (final IllegalStateException expected) {
+            // parsed
+        }
+    }
+
+    /**
+     * testUploadSessionStore appends a message to an upload session in random slices, and reopens the session from disk in between, as after a
+     * restart, with extra bytes in a part file as after a crash. The stored parts have the content of the whole message.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testUploadSessionStore() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(String.format("--%s\r\nContent-Type: text/plain\r\nContent-Transfer-Encoding: base64\r\n\r\n%s\r\n", strBoundary,
+                Base64.getMimeEncoder().encodeToString(mimeTestUtils.randString(5000).getBytes(StandardCharsets.UTF_8))).getBytes(StandardCharsets.UTF_8));
+        baos.write(mimeTestUtils.createMultipartMessage(strBoundary, 3, 5000));
+        final byte[] baMsg = baos.toByteArray();
+        final List<byte[]> listRef = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+
+        final Path dir = Files.createTempDirectory("MIMEParserCheckpointTest");
+        try {
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, -1L, true);
+            mimeCfg.setDirYM(dir.toString());
+            UploadSessionStore store = new UploadSessionStore(mimeCfg);
+            for (final String uploadId : new String[] {".", "..", "a/b", ""}) {
+                try {
+                    store.open(uploadId, strBoundary);
+                    Assert.fail("upload ID outside the uploads directory: " + uploadId);
+                } catch (final IllegalArgumentException expected) {
+                    // rejected
+                }
+                try {
+                    store.delete(uploadId);
+                    Assert.fail("upload ID outside the uploads directory: " + uploadId);
+                } catch (final IllegalArgumentException expected) {
+                    // rejected
+                }
+            }
+            UploadSession session = store.open("upload-1", strBoundary);
+            final Random random = new Random(42);
+            int restarts = 0;
+            while (!session.isComplete()) {
+                final int off = (int) session.getBytesReceived();
+                final int n = Math.min(1 + random.nextInt(2000), baMsg.length - off);
+                session.append(ByteBuffer.wrap(baMsg, off, n));
+                if (random.nextInt(4) == 0) {
+                    // restart, after a crash that wrote content beyond the manifest
+                    final List<UploadSession.StoredPart> listStored = session.getParts();
+                    if (!listStored.isEmpty() && !listStored.get(listStored.size() - 1).isComplete()) {
+                        Files.write(listStored.get(listStored.size() - 1).getPath(), "junk".getBytes(StandardCharsets.UTF_8),
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    }
+                    session.close();
+                    store = new UploadSessionStore(mimeCfg);
+                    Assert.assertEquals(store.list(), Collections.singletonList("upload-1"));
+                    session = store.get("upload-1");
+                    restarts++;
+                }
+            }
+            Assert.assertTrue(restarts > 0);
+            Assert.assertEquals(session.getBytesReceived(), baMsg.length);
+
+            final List<UploadSession.StoredPart> listStored = session.getParts();
+            Assert.assertEquals(listStored.size(), listRef.size());
+            for (int i = 0; i < listRef.size(); i++) {
+                final UploadSession.StoredPart stored = listStored.get(i);
+                Assert.assertTrue(stored.isComplete());
+                byte[] baContent = Files.readAllBytes(stored.getPath());
+                Assert.assertEquals(baContent.length, stored.getLength());
+                if ("base64".equals(stored.getHeader("content-transfer-encoding"))) {
+                    baContent = Base64.getMimeDecoder().decode(baContent);
+                }
+                Assert.assertTrue(Arrays.equals(baContent, listRef.get(i)), "content mismatch for part " + i);
+            }
+            session.delete();
+            Assert.assertTrue(store.list().isEmpty());
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Serializes and deserializes a checkpoint.
+     *
+     * @param checkpoint MIMEParserCheckpoint.
+     * @return the deserialized copy.
+     * @throws Exception exception.
+     */
+    private static MIMEParserCheckpoint serialize(final MIMEParserCheckpoint checkpoint) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(checkpoint);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            return (MIMEParserCheckpoint) ois.readObject();
+        }
+    }
+
+    /**
+     * Compares the parts of an interrupted message and of the message resumed from its checkpoint with the parts of the whole message, and closes
+     * both messages.
+     *
+     * @param mimeMsg interrupted message.
+     * @param mimeResumed resumed message, parsed.
+     * @param listExpected content of each part of the whole message.
+     * @param msg String.
+     * @throws IOException exception.
+     */
+    private void assertResumed(final MIMEMessagePartial mimeMsg, final MIMEMessagePartial mimeResumed, final List<byte[]> listExpected,
+            final String msg) throws IOException {
+        try {
+            final int first = mimeResumed.getFirstPartIndex();
+            final List<MIMEPartPartial> listParts = mimeResumed.getAttachmentsPartial();
+            Assert.assertEquals(first + listParts.size(), listExpected.size(), msg);
+            final List<MIMEPartPartial> listBefore = mimeMsg.getAttachmentsFound();
+            for (int i = 0; i < listExpected.size(); i++) {
+                final ByteArrayOutputStream baosPart = new ByteArrayOutputStream();
+                if (i < listBefore.size()) {
+                    // content before the checkpoint, up to where the message needs more input
+                    final byte[] ba = new byte[4096];
+                    try {
+                        final InputStream isPart = listBefore.get(i).getDataHead().read();
+                        int n;
+                        while ((n = isPart.read(ba)) != -1) {
+                            baosPart.write(ba, 0, n);
+                        }
+                    } catch (final IOException | IllegalStateException | MIMEParsingException needsInput) {
+                        Assert.assertEquals(i, first, msg);
+                    }
+                }
+                if (i >= first) {
+                    final MIMEPartPartial part = listParts.get(i - first);
+                    baosPart.write(MIMETestUtils.readFully(part.getDataHead().read()));
+                    if (i == first && i < listBefore.size()) {
+                        Assert.assertEquals(part.getContentType(), listBefore.get(i).getContentType(), msg);
+                    }
+                }
+                // the raw content is read, since the two halves of an encoded part cannot be decoded separately
+                byte[] baContent = baosPart.toByteArray();
+                final MIMEPartPartial partAny = i >= first ? listParts.get(i - first) : listBefore.get(i);
+                if ("base64".equalsIgnoreCase(partAny.getContentTransferEncoding())) {
+                    baContent = Base64.getMimeDecoder().decode(baContent);
+                }
+                Assert.assertTrue(Arrays.equals(baContent, listExpected.get(i)), msg + ", content mismatch for part " + i);
+            }
+        } finally {
+            mimeMsg.close();
+            mimeResumed.close();
+        }
+    }
+}
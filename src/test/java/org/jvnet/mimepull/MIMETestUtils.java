@@ -596,4 +596,77 @@ public class MIMETestUtils {
         }
     }
 
+    /**
+     * Creates a complete multipart message with random text attachments.
+     *
+     * @param strBoundary boundary without the leading dashes.
+     * @param numFiles number of attachments.
+     * @param szFile approx size of each attachment.
+     * @return the message bytes.
+     * @throws IOException exception.
+     */
+    public byte[] createMultipartMessage(final String strBoundary, final int numFiles, final int szFile) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        String s;
+        for (int i = 0; i < numFiles; i++) {
+            s = getBoundaryString(strBoundary, false);
+            baos.write(s.getBytes(StandardCharsets.UTF_8));
+            s = getAttachmentHeader(String.format("file_%d", i));
+            baos.write(s.getBytes(StandardCharsets.UTF_8));
+            s = textRandFileAttachment(szFile, String.format("file_%d", i));
+            baos.write(s.getBytes(StandardCharsets.UTF_8));
+            baos.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        s = getBoundaryString(strBoundary, true);
+        baos.write(s.getBytes(StandardCharsets.UTF_8));
+        return baos.toByteArray();
+    }
+
+    /**
+     * Parses a message and reads the content of every part.
+     *
+     * @param baMsg message bytes.
+     * @param strBoundary boundary without the leading dashes.
+     * @param mimeCfg MIMEConfigYM.
+     * @return content of each part.
+     * @throws IOException exception.
+     */
+    public static List<byte[]> readAllParts(final byte[] baMsg, final String strBoundary, final MIMEConfigYM mimeCfg) throws IOException {
+        final List<byte[]> listContent = new ArrayList<>();
+        final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+        try {
+            for (final MIMEPartPartial mimePart : mimeMsg.getAttachmentsPartial()) {
+                final InputStream isPart = mimePart.read();
+                final ByteArrayOutputStream baosCmp = new ByteArrayOutputStream();
+                final byte[] ba = new byte[4096];
+                int n;
+                while ((n = isPart.read(ba)) != -1) {
+                    baosCmp.write(ba, 0, n);
+                }
+                listContent.add(baosCmp.toByteArray());
+            }
+        } finally {
+            mimeMsg.close();
+        }
+        return listContent;
+    }
+
+    /**
+     * Reads a stream to the end and closes it.
+     *
+     * @param is InputStream.
+     * @return the bytes read.
+     * @throws IOException exception.
+     */
+    public static byte[] readFully(final InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] ba = new byte[4096];
+        int n;
+        while ((n = is.read(ba)) != -1) {
+            baos.write(ba, 0, n);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+
 }
@@ -0,0 +1,419 @@
+package org.jvnet.mimepull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * SpillFileTest tests spilling parts to the spill file of a message, with a spill writer, several spill directories and compression.
+ *
+ * @author wayneng
+ *
+ */
+public class SpillFileTest {
+    /**
+     * testSpillFile parses a message whose parts all go over the memory threshold. They are spilled to one file for the message, which is
+     * deleted when the message is closed, and a part moved to a file has its content copied there.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testSpillFile() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 8, 20000);
+        final List<byte[]> listExpected = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        final Path dir = Files.createTempDirectory("SpillFileTest");
+        final Path moved = dir.resolve("moved.bin");
+        try {
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, 4096L, true);
+            mimeCfg.setDirYM(dir.toString());
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+            final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(dir.toFile().list().length, 1);
+            long total = 0;
+            for (int i = 0; i < listExpected.size(); i++) {
+                Assert.assertEquals(MIMETestUtils.readFully(parts.get(i).read()), listExpected.get(i));
+                total += listExpected.get(i).length;
+            }
+            Assert.assertTrue(mimeMsg.getSpillFile().size() > total - 4096 * listExpected.size());
+            parts.get(3).moveTo(moved.toFile());
+            Assert.assertEquals(Files.readAllBytes(moved), listExpected.get(3));
+            parts.get(0).close();
+            Assert.assertEquals(MIMETestUtils.readFully(parts.get(1).read()), listExpected.get(1));
+            mimeMsg.close();
+            Assert.assertEquals(dir.toFile().list(), new String[] {"moved.bin"});
+        } finally {
+            Files.deleteIfExists(moved);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * testSpillWriter parses messages whose parts are spilled by a background writer, with pooled chunk buffers and the file forced at the end
+     * of every part. The content is the same whether a chunk is read while it is queued or once it is written.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testSpillWriter() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 8, 20000);
+        final List<byte[]> listExpected = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        final Path dir = Files.createTempDirectory("SpillFileTest");
+        final SpillWriter writer = new SpillWriter(2, 4);
+        try {
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, 4096L, true);
+            mimeCfg.setDirYM(dir.toString());
+            mimeCfg.setChunkBufferPool(new BoundedChunkBufferPool(1024, 64));
+            mimeCfg.setSpillWriter(writer);
+            mimeCfg.setSpillFsync(SpillWriter.Fsync.PART);
+            for (int n = 0; n < 5; n++) {
+                final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+                final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+                for (int i = 0; i < listExpected.size(); i++) {
+                    Assert.assertEquals(MIMETestUtils.readFully(parts.get(i).read()), listExpected.get(i));
+                }
+                mimeMsg.close();
+            }
+            Assert.assertEquals(MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg), listExpected);
+            Assert.assertTrue(writer.getWrittenCount() > 0);
+            Assert.assertTrue(writer.close(10000L));
+            Assert.assertEquals(writer.getQueuedCount(), 0);
+            // chunks are written on the parsing thread once the writer is closed
+            Assert.assertEquals(MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg), listExpected);
+            Assert.assertEquals(dir.toFile().list().length, 0);
+        } finally {
+            writer.close();
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * testSpillDirectories spreads the spill files of messages over two directories in turn, then by the bytes of their open spill files, and
+     * places them in the one healthy directory when the other cannot be created.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testSpillDirectories() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 4, 20000);
+        final List<byte[]> listExpected = MIMETestUtils.readAllParts(baMsg, strBoundary, new MIMEConfigYM(false, 1024, -1L, true));
+        final Path root = Files.createTempDirectory("SpillFileTest");
+        final File dir1 = root.resolve("disk1").toFile();
+        final File dir2 = root.resolve("disk2").toFile();
+        final File notDir = Files.createFile(root.resolve("file")).toFile();
+        try {
+            final SpillDirectories dirs = new SpillDirectories(Arrays.asList(dir1, dir2), SpillDirectories.Placement.ROUND_ROBIN);
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, 4096L, true);
+            mimeCfg.setSpillDirectories(dirs);
+            final List<MIMEMessagePartial> msgs = new ArrayList<>();
+            for (int n = 0; n < 4; n++) {
+                final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+                mimeMsg.parseAllPartial();
+                msgs.add(mimeMsg);
+            }
+            Assert.assertEquals(dir1.list().length, 2);
+            Assert.assertEquals(dir2.list().length, 2);
+            for (final SpillDirectories.Directory dir : dirs.getDirectories()) {
+                Assert.assertEquals(dir.getFileCount(), 2L);
+                Assert.assertTrue(dir.isHealthy());
+                Assert.assertEquals(dir.getOpenBytes(), dir.getSpilledBytes());
+                Assert.assertEquals(dir.getOpenBytes(), msgs.get(0).getSpillFile().size() * 2);
+            }
+            for (final MIMEMessagePartial mimeMsg : msgs) {
+                for (int i = 0; i < listExpected.size(); i++) {
+                    Assert.assertEquals(MIMETestUtils.readFully(mimeMsg.getAttachmentsPartial().get(i).read()), listExpected.get(i));
+                }
+                mimeMsg.close();
+            }
+            Assert.assertEquals(dir1.list().length + dir2.list().length, 0);
+            Assert.assertEquals(dirs.getDirectories().get(0).getOpenBytes(), 0L);
+            Assert.assertTrue(dirs.getDirectories().get(0).getSpilledBytes() > 0);
+
+            final SpillDirectories leastLoaded = new SpillDirectories(Arrays.asList(dir1, dir2), SpillDirectories.Placement.LEAST_LOADED);
+            mimeCfg.setSpillDirectories(leastLoaded);
+            final MIMEMessagePartial first = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+            first.parseAllPartial();
+            final MIMEMessagePartial second = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+            second.parseAllPartial();
+            Assert.assertEquals(dir1.list().length, 1);
+            Assert.assertEquals(dir2.list().length, 1);
+            first.close();
+            second.close();
+
+            final SpillDirectories failing = new SpillDirectories(Arrays.asList(notDir, dir1), SpillDirectories.Placement.ROUND_ROBIN);
+            mimeCfg.setSpillDirectories(failing);
+            Assert.assertEquals(MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg), listExpected);
+            Assert.assertEquals(MIMETestUtils.readAllParts(baMsg, strBoundary, mimeCfg), listExpected);
+            Assert.assertFalse(failing.getDirectories().get(0).isHealthy());
+            Assert.assertEquals(failing.getDirectories().get(0).getFailureCount(), 1L);
+            Assert.assertEquals(failing.getDirectories().get(1).getFileCount(), 2L);
+
+            // validate() probes every directory, and keeps the parts in memory if none can be used
+            final SpillDirectories probed = new SpillDirectories(Arrays.asList(dir2, notDir), SpillDirectories.Placement.ROUND_ROBIN);
+            final MIMEConfigYM probedCfg = new MIMEConfigYM(false, 1024, 4096L, true);
+            probedCfg.setSpillDirectories(probed);
+            probedCfg.validate();
+            Assert.assertTrue(probed.getDirectories().get(0).isHealthy());
+            Assert.assertFalse(probed.getDirectories().get(1).isHealthy());
+            Assert.assertFalse(probedCfg.isOnlyMemory());
+            Assert.assertEquals(dir2.list().length, 0);
+            final File underFile = new File(notDir, "disk");
+            probedCfg.setSpillDirectories(new SpillDirectories(Arrays.asList(notDir, underFile), SpillDirectories.Placement.ROUND_ROBIN));
+            probedCfg.validate();
+            Assert.assertTrue(probedCfg.isOnlyMemory());
+        } finally {
+            Files.delete(notDir.toPath());
+            Files.deleteIfExists(dir1.toPath());
+            Files.deleteIfExists(dir2.toPath());
+            Files.delete(root);
+        }
+    }
+
+    /**
+     * testSpillCompression spills a JSON part, a text part sent as application/octet-stream, and a part of random bytes. JSON is compressed by
+     * its Content-Type, the text part only with the probe, and the random bytes never. The content read is the same in every case.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testSpillCompression() throws Exception {
+        final String strBoundary = "Boundary_123_test";
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 4000; i++) {
+            sb.append(String.format("{\"id\":%d,\"name\":\"item %d\",\"tags\":[\"a\",\"b\"]},", i, i % 50));
+        }
+        final byte[] json = sb.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] random = new byte[json.length];
+        new Random(42).nextBytes(random);
+        final byte[][] contents = {json, json, random};
+        final String[] types = {"application/json; charset=utf-8", "application/octet-stream", "application/octet-stream"};
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < contents.length; i++) {
+            baos.write(String.format("--%s\r\nContent-Type: %s\r\n\r\n", strBoundary, types[i]).getBytes(StandardCharsets.ISO_8859_1));
+            baos.write(contents[i]);
+            baos.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        baos.write(String.format("--%s--\r\n", strBoundary).getBytes(StandardCharsets.ISO_8859_1));
+        final byte[] baMsg = baos.toByteArray();
+
+        final long[] sizes = new long[SpillCompression.values().length];
+        for (final SpillCompression compression : SpillCompression.values()) {
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 8192, 4096L, true);
+            mimeCfg.setSpillCompression(compression);
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+            final List<MIMEPartPartial> parts = mimeMsg.getAttachmentsPartial();
+            Assert.assertEquals(MIMETestUtils.readFully(parts.get(0).read()), json);
+            Assert.assertEquals(MIMETestUtils.readFully(parts.get(1).readOnce()), json);
+            Assert.assertEquals(MIMETestUtils.readFully(parts.get(2).read()), random);
+            final File moved = File.createTempFile("SpillFileTest", ".json");
+            try {
+                parts.get(0).moveTo(moved);
+                Assert.assertEquals(Files.readAllBytes(moved.toPath()), json);
+            } finally {
+                Assert.assertTrue(moved.delete());
+            }
+            sizes[compression.ordinal()] = mimeMsg.getSpillFile().size();
+            mimeMsg.close();
+        }
+        final long none = sizes[SpillCompression.NONE.ordinal()];
+        Assert.assertEquals(none, 3L * json.length);
+        // only the JSON part is compressed, then the text part as well
+        Assert.assertTrue(sizes[SpillCompression.CONTENT_TYPE.ordinal()] < 2.2 * json.length);
+        Assert.assertTrue(sizes[SpillCompression.PROBE.ordinal()] < 1.2 * json.length);
+    }
+
+    /**
+     * testSpillWriteFailure spills a part through a writer to a channel whose writes fail. Every failed chunk is reported to the part, so its
+     * pooled buffers are given back, and reading the part throws the error instead of returning lost content.
+     *
+     * @throws Exception exception.
+     */
+    @Test
+    public void testSpillWriteFailure() throws Exception {
+        final MIMETestUtils mimeTestUtils = new MIMETestUtils();
+        final String strBoundary = "Boundary_123_test";
+        final byte[] baMsg = mimeTestUtils.createMultipartMessage(strBoundary, 1, 20000);
+        final Path dir = Files.createTempDirectory("SpillFileTest");
+        final SpillWriter writer = new SpillWriter(1, 64);
+        final CountDownLatch parsed = new CountDownLatch(1);
+        try {
+            final BoundedChunkBufferPool pool = new BoundedChunkBufferPool(1024, 64);
+            final MIMEConfigYM mimeCfg = new MIMEConfigYM(false, 1024, 4096L, true);
+            mimeCfg.setDirYM(dir.toString());
+            mimeCfg.setChunkBufferPool(pool);
+            mimeCfg.setSpillWriter(writer);
+            mimeCfg.setSpillFsync(SpillWriter.Fsync.PART);
+            final MIMEMessagePartial mimeMsg = new MIMEMessagePartial(new ByteArrayInputStream(baMsg), strBoundary, mimeCfg);
+            // the file is created up front to put a channel in front of it whose writes fail once the message is parsed
+            final SpillFile spillFile = mimeMsg.getSpillFile();
+            spillFile.reserve(0);
+            final Field channel = SpillFile.class.getDeclaredField("channel");
+            channel.setAccessible(true);
+            channel.set(spillFile, new FailingChannel((FileChannel) channel.get(spillFile), parsed));
+
+            final MIMEPartPartial part = mimeMsg.getAttachmentsPartial().get(0);
+            Assert.assertTrue(part.isParsed());
+            parsed.countDown();
+            Assert.assertTrue(writer.close(10000L));
+            Assert.assertTrue(writer.getFailedCount() > 0);
+            Assert.assertEquals(writer.getWrittenCount(), 0L);
+            Assert.assertEquals(pool.getOutstandingCount(), 0, "buffers of the failed chunks were not given back");
+            try {
+                part.read();
+                Assert.fail("read the content of a part whose chunks were not written");
+            } catch (final MIMEParsingException expected) {
+                // the content is lost
+            }
+            try {
+                part.transferTo(Channels.newChannel(new ByteArrayOutputStream()));
+                Assert.fail("transferred the content of a part whose chunks were not written");
+            } catch (final MIMEParsingException expected) {
+                // the content is lost
+            }
+            mimeMsg.close();
+            Assert.assertEquals(dir.toFile().list().length, 0);
+        } finally {
+            parsed.countDown();
+            writer.close();
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * FileChannel whose positional writes wait until the message is parsed and then fail, everything else goes to the spill file.
+     */
+    private static final class FailingChannel extends FileChannel {
+        /** The channel of the spill file. */
+        private final FileChannel file;
+        /** Opened once the message is parsed. */
+        private final CountDownLatch parsed;
+
+        /**
+         * Constructor.
+         *
+         * @param file FileChannel.
+         * @param parsed CountDownLatch.
+         */
+        FailingChannel(final FileChannel file, final CountDownLatch parsed) {
+            this.file = file;
+            this.parsed = parsed;
+        }
+
+        @Override
+        public int write(final ByteBuffer src, final long position) throws IOException {
+            try {
+                parsed.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return file.read(dst);
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+            return file.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return file.write(src);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return file.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(final long newPosition) throws IOException {
+            file.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public FileChannel truncate(final long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(final boolean metaData) throws IOException {
+            file.force(metaData);
+        }
+
+        @Override
+        public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(final ReadableByteChannel src, final long position, final long count) throws IOException {
+            return file.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(final ByteBuffer dst, final long position) throws IOException {
+            return file.read(dst, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}